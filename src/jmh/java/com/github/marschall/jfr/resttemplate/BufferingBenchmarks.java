@@ -0,0 +1,182 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.BufferingClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Compares buffering request bodies with {@link BufferingClientHttpRequestFactory}
+ * and {@link PooledBufferingClientHttpRequestFactory}.
+ * <p>
+ * The bodies are discarded rather than sent so that only buffering is measured.
+ * Run with {@code -prof gc} (the default of the {@code jmh} profile) to compare
+ * the allocation rate and the GC pressure.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BufferingBenchmarks {
+
+  private static final URI ENDPOINT = URI.create("http://localhost/post");
+
+  /**
+   * The size of the chunks a message converter writes.
+   */
+  private static final int CHUNK_SIZE = 8 * 1024;
+
+  @Param({"1024", "65536", "1048576"})
+  private int bodySize;
+
+  private byte[] chunk;
+
+  private ClientHttpRequestFactory buffering;
+
+  private ClientHttpRequestFactory pooledBuffering;
+
+  @Setup
+  public void setUp() {
+    this.chunk = new byte[CHUNK_SIZE];
+    ClientHttpRequestFactory discarding = new DiscardingClientHttpRequestFactory();
+    this.buffering = new BufferingClientHttpRequestFactory(discarding);
+    // enough to pool every body of every thread
+    this.pooledBuffering = new PooledBufferingClientHttpRequestFactory(discarding, new BufferPool(8 * 1024, 1024, 2L * 1024L * 1024L));
+  }
+
+  @Benchmark
+  public HttpStatusCode buffering() throws IOException {
+    return this.post(this.buffering);
+  }
+
+  @Benchmark
+  public HttpStatusCode pooledBuffering() throws IOException {
+    return this.post(this.pooledBuffering);
+  }
+
+  private HttpStatusCode post(ClientHttpRequestFactory requestFactory) throws IOException {
+    ClientHttpRequest request = requestFactory.createRequest(ENDPOINT, HttpMethod.POST);
+    OutputStream body = request.getBody();
+    for (int written = 0; written < this.bodySize; written += CHUNK_SIZE) {
+      body.write(this.chunk, 0, Math.min(CHUNK_SIZE, this.bodySize - written));
+    }
+    try (ClientHttpResponse response = request.execute()) {
+      return response.getStatusCode();
+    }
+  }
+
+  static final class DiscardingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+      return new DiscardingClientHttpRequest(uri, httpMethod);
+    }
+
+  }
+
+  static final class DiscardingClientHttpRequest implements ClientHttpRequest {
+
+    private final URI uri;
+
+    private final HttpMethod method;
+
+    private final HttpHeaders headers;
+
+    private final Map<String, Object> attributes;
+
+    DiscardingClientHttpRequest(URI uri, HttpMethod method) {
+      this.uri = uri;
+      this.method = method;
+      this.headers = new HttpHeaders();
+      this.attributes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+      return this.method;
+    }
+
+    @Override
+    public URI getURI() {
+      return this.uri;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return this.attributes;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return this.headers;
+    }
+
+    @Override
+    public OutputStream getBody() {
+      return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public ClientHttpResponse execute() {
+      return new EmptyClientHttpResponse();
+    }
+
+  }
+
+  static final class EmptyClientHttpResponse implements ClientHttpResponse {
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return HttpHeaders.EMPTY;
+    }
+
+    @Override
+    public InputStream getBody() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() {
+      return HttpStatus.NO_CONTENT;
+    }
+
+    @Override
+    public String getStatusText() {
+      return HttpStatus.NO_CONTENT.getReasonPhrase();
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
+    }
+
+  }
+
+}
@@ -0,0 +1,100 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Wraps a {@link ClientHttpRequest} of an {@link AdaptiveTimeoutClientHttpRequestFactory}
+ * and records its latency or timeout.
+ */
+class AdaptiveTimeoutClientHttpRequest implements ClientHttpRequest {
+
+  final ClientHttpRequest delegate;
+
+  private final AdaptiveTimeouts adaptiveTimeouts;
+
+  private final String endpoint;
+
+  private final long timeout;
+
+  AdaptiveTimeoutClientHttpRequest(ClientHttpRequest delegate, AdaptiveTimeouts adaptiveTimeouts,
+          String endpoint, long timeout) {
+    this.delegate = delegate;
+    this.adaptiveTimeouts = adaptiveTimeouts;
+    this.endpoint = endpoint;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return this.delegate.getMethod();
+  }
+
+  @Override
+  public URI getURI() {
+    return this.delegate.getURI();
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return this.delegate.getAttributes();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public OutputStream getBody() throws IOException {
+    return this.delegate.getBody();
+  }
+
+  @Override
+  public ClientHttpResponse execute() throws IOException {
+    long start = System.nanoTime();
+    ClientHttpResponse response = null;
+    try {
+      response = this.delegate.execute();
+      // with a body the response headers are only read on demand
+      response.getStatusCode();
+    } catch (SocketTimeoutException e) {
+      if (response != null) {
+        response.close();
+      }
+      // a connect timeout fails sooner unless it is longer than the read timeout
+      if (System.nanoTime() - start >= this.timeout) {
+        this.adaptiveTimeouts.recordTimeout(this.endpoint, this.timeout);
+      }
+      throw e;
+    }
+    this.adaptiveTimeouts.recordLatency(this.endpoint, System.nanoTime() - start);
+    return response;
+  }
+
+  /**
+   * Keeps streaming requests streaming.
+   */
+  static final class Streaming extends AdaptiveTimeoutClientHttpRequest implements StreamingHttpOutputMessage {
+
+    Streaming(ClientHttpRequest delegate, AdaptiveTimeouts adaptiveTimeouts, String endpoint, long timeout) {
+      super(delegate, adaptiveTimeouts, endpoint, timeout);
+    }
+
+    @Override
+    public void setBody(Body body) {
+      ((StreamingHttpOutputMessage) this.delegate).setBody(body);
+    }
+
+  }
+
+}
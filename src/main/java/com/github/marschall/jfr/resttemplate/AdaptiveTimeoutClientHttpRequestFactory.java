@@ -0,0 +1,86 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+/**
+ * A {@link SimpleClientHttpRequestFactory} that sets the read timeout of every
+ * request made through {@link JfrRestOperations} from {@link AdaptiveTimeouts}.
+ * <p>
+ * The latency of an endpoint is measured by this request factory from
+ * executing the request until the response headers have been received, it
+ * includes sending the request body. Requests not made through
+ * {@link JfrRestOperations} and requests made during a {@link RestWarmup} use
+ * the read timeout configured with {@link #setReadTimeout(int)}.
+ * <p>
+ * {@link HttpURLConnection} reports connect timeouts and read timeouts with
+ * the same exception, they are told apart by their duration. The connect
+ * timeout should therefore be shorter than the floor of the adaptive timeouts.
+ *
+ * @see JfrHttp2ClientHttpRequestFactory#setAdaptiveTimeouts(AdaptiveTimeouts)
+ */
+public final class AdaptiveTimeoutClientHttpRequestFactory extends SimpleClientHttpRequestFactory {
+
+  /**
+   * Passes the timeout from {@link #createRequest(URI, HttpMethod)} to
+   * {@link #prepareConnection(HttpURLConnection, String)}.
+   */
+  private static final ThreadLocal<Integer> READ_TIMEOUT = new ThreadLocal<>();
+
+  private final AdaptiveTimeouts adaptiveTimeouts;
+
+  /**
+   * Constructs a new {@link AdaptiveTimeoutClientHttpRequestFactory}.
+   *
+   * @param adaptiveTimeouts the adaptive timeouts, not {@code null}
+   */
+  public AdaptiveTimeoutClientHttpRequestFactory(AdaptiveTimeouts adaptiveTimeouts) {
+    Objects.requireNonNull(adaptiveTimeouts, "adaptiveTimeouts");
+    this.adaptiveTimeouts = adaptiveTimeouts;
+  }
+
+  @Override
+  public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+    RestEvent event = JfrRestOperations.CURRENT_EVENT.get();
+    // cold latencies during warm-up would distort the timeouts
+    if (event == null || event.isWarmup()) {
+      return super.createRequest(uri, httpMethod);
+    }
+    String endpoint = event.getUri();
+    // HttpURLConnection uses milliseconds, 0 would be no timeout at all
+    long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(this.adaptiveTimeouts.getTimeout(endpoint)), 1L);
+    int readTimeout = (int) Math.min(millis, Integer.MAX_VALUE);
+    long timeout = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+    ClientHttpRequest request;
+    READ_TIMEOUT.set(readTimeout);
+    try {
+      request = super.createRequest(uri, httpMethod);
+    } finally {
+      READ_TIMEOUT.remove();
+    }
+    if (request instanceof StreamingHttpOutputMessage) {
+      return new AdaptiveTimeoutClientHttpRequest.Streaming(request, this.adaptiveTimeouts, endpoint, timeout);
+    }
+    return new AdaptiveTimeoutClientHttpRequest(request, this.adaptiveTimeouts, endpoint, timeout);
+  }
+
+  @Override
+  protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+    super.prepareConnection(connection, httpMethod);
+    Integer readTimeout = READ_TIMEOUT.get();
+    if (readTimeout != null) {
+      connection.setReadTimeout(readTimeout);
+    }
+  }
+
+}
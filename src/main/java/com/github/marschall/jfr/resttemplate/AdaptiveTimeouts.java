@@ -0,0 +1,338 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Derives the read timeout of each endpoint from its observed latency.
+ * <p>
+ * The timeout of an endpoint is a configured multiple of a configured
+ * percentile of its latency, bounded by a floor and a ceiling. Until enough
+ * latencies of an endpoint have been observed the ceiling is used. The
+ * latencies are kept in a histogram with buckets about 19% apart that is
+ * halved regularly so that it follows changes in latency.
+ * <p>
+ * Every change of the timeout of an endpoint generates a "Timeout Adjustment"
+ * event and every request that times out generates a "Timeout" event.
+ * <p>
+ * Endpoints are identified by the URI of the {@link JfrRestOperations}
+ * operation, usually the URI template. Only the first
+ * {@value #MAX_ENDPOINTS} endpoints are tracked.
+ * <p>
+ * The timeout has to be set on every request, only
+ * {@link JfrHttp2ClientHttpRequestFactory} and
+ * {@link AdaptiveTimeoutClientHttpRequestFactory} support this. The latencies
+ * are measured by these request factories, not by {@link JfrRestOperations}.
+ *
+ * @see JfrHttp2ClientHttpRequestFactory#setAdaptiveTimeouts(AdaptiveTimeouts)
+ * @see AdaptiveTimeoutClientHttpRequestFactory
+ */
+public final class AdaptiveTimeouts {
+
+  static final int MAX_ENDPOINTS = 1024;
+
+  /**
+   * The minimum number of latencies observed before the timeout is adapted.
+   */
+  static final int MIN_SAMPLES = 20;
+
+  /**
+   * The number of latencies after which the histogram is halved.
+   */
+  static final int WINDOW = 1024;
+
+  static final int BUCKETS_PER_DOUBLING = 4;
+
+  static final int BUCKETS = 128;
+
+  private final double percentile;
+
+  private final double multiple;
+
+  private final long floor;
+
+  private final long ceiling;
+
+  private final Map<String, EndpointLatencies> endpoints;
+
+  /**
+   * Constructs a new {@link AdaptiveTimeouts}.
+   *
+   * @param percentile the latency percentile to base the timeout on, eg. 0.99
+   * @param multiple by how much the timeout exceeds the percentile, eg. 2.0
+   * @param floor the minimum timeout, not {@code null}
+   * @param ceiling the maximum timeout, used until enough latencies have been
+   *                observed, not {@code null}
+   * @throws IllegalArgumentException if the percentile is not between 0 and 1,
+   *                                  the multiple is smaller than 1 or the
+   *                                  ceiling is smaller than the floor
+   */
+  public AdaptiveTimeouts(double percentile, double multiple, Duration floor, Duration ceiling) {
+    Objects.requireNonNull(floor, "floor");
+    Objects.requireNonNull(ceiling, "ceiling");
+    if (!(percentile > 0.0d && percentile <= 1.0d)) {
+      throw new IllegalArgumentException("percentile must be between 0 and 1");
+    }
+    if (!(multiple >= 1.0d)) {
+      throw new IllegalArgumentException("multiple must be at least 1");
+    }
+    if (floor.isNegative() || ceiling.compareTo(floor) < 0) {
+      throw new IllegalArgumentException("ceiling must not be smaller than floor");
+    }
+    this.percentile = percentile;
+    this.multiple = multiple;
+    this.floor = floor.toNanos();
+    this.ceiling = ceiling.toNanos();
+    this.endpoints = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the current timeout of an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the timeout in nanoseconds
+   */
+  long getTimeout(String endpoint) {
+    EndpointLatencies latencies = this.endpoints.get(endpoint);
+    if (latencies == null) {
+      return this.ceiling;
+    }
+    return latencies.timeout;
+  }
+
+  /**
+   * Records the latency of a request that completed.
+   *
+   * @param endpoint the endpoint
+   * @param latency the latency in nanoseconds
+   */
+  void recordLatency(String endpoint, long latency) {
+    EndpointLatencies latencies = this.endpoints.get(endpoint);
+    if (latencies == null) {
+      if (this.endpoints.size() >= MAX_ENDPOINTS) {
+        return;
+      }
+      latencies = this.endpoints.computeIfAbsent(endpoint, key -> new EndpointLatencies(this.ceiling));
+    }
+    long previousTimeout;
+    long timeout;
+    long samples;
+    synchronized (latencies) {
+      latencies.record(latency);
+      previousTimeout = latencies.timeout;
+      timeout = this.computeTimeout(latencies);
+      latencies.timeout = timeout;
+      samples = latencies.samples;
+    }
+    if (timeout != previousTimeout) {
+      TimeoutAdjustmentEvent event = new TimeoutAdjustmentEvent();
+      if (event.isEnabled()) {
+        event.setEndpoint(endpoint);
+        event.setPreviousTimeout(previousTimeout);
+        event.setTimeout(timeout);
+        event.setSamples(samples);
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Records a request that timed out. The timeout is recorded as latency as
+   * the actual latency is at least the timeout.
+   *
+   * @param endpoint the endpoint
+   * @param timeout the timeout in nanoseconds that was exceeded
+   */
+  void recordTimeout(String endpoint, long timeout) {
+    TimeoutEvent event = new TimeoutEvent();
+    if (event.isEnabled()) {
+      event.setEndpoint(endpoint);
+      event.setTimeout(timeout);
+      event.commit();
+    }
+    this.recordLatency(endpoint, timeout);
+  }
+
+  private long computeTimeout(EndpointLatencies latencies) {
+    long latency = latencies.getPercentile(this.percentile);
+    if (latency < 0L) {
+      return this.ceiling;
+    }
+    long timeout = (long) (latency * this.multiple);
+    return Math.min(Math.max(timeout, this.floor), this.ceiling);
+  }
+
+  static int getBucket(long latency) {
+    long micros = latency / 1_000L;
+    if (micros <= 1L) {
+      return 0;
+    }
+    int bucket = (int) (Math.log(micros) / Math.log(2.0d) * BUCKETS_PER_DOUBLING);
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  /**
+   * Returns the upper bound of a bucket.
+   *
+   * @param bucket the bucket index
+   * @return the upper bound in nanoseconds
+   */
+  static long getUpperBound(int bucket) {
+    return (long) (Math.pow(2.0d, (bucket + 1) / (double) BUCKETS_PER_DOUBLING) * 1_000.0d);
+  }
+
+  /**
+   * The latencies of a single endpoint, guarded by its monitor except for the
+   * timeout which is read without locking.
+   */
+  static final class EndpointLatencies {
+
+    private final long[] buckets;
+
+    long samples;
+
+    volatile long timeout;
+
+    EndpointLatencies(long timeout) {
+      this.buckets = new long[BUCKETS];
+      this.timeout = timeout;
+    }
+
+    void record(long latency) {
+      this.buckets[getBucket(latency)] += 1L;
+      this.samples += 1L;
+      if (this.samples >= WINDOW) {
+        long halved = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+          long count = this.buckets[i] / 2L;
+          this.buckets[i] = count;
+          halved += count;
+        }
+        this.samples = halved;
+      }
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the percentile.
+     *
+     * @param percentile the percentile, between 0 and 1
+     * @return the latency in nanoseconds, -1 if not enough latencies were
+     *         observed
+     */
+    long getPercentile(double percentile) {
+      if (this.samples < MIN_SAMPLES) {
+        return -1L;
+      }
+      long rank = (long) Math.ceil(this.samples * percentile);
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += this.buckets[i];
+        if (seen >= rank) {
+          return getUpperBound(i);
+        }
+      }
+      return getUpperBound(BUCKETS - 1);
+    }
+
+  }
+
+  @Label("Timeout Adjustment")
+  @Description("The read timeout of an endpoint was adjusted")
+  @Category("Spring REST")
+  @StackTrace(false)
+  static class TimeoutAdjustmentEvent extends Event {
+
+    @Label("Endpoint")
+    @Description("The URI of the endpoint")
+    private String endpoint;
+
+    @Label("Previous Timeout")
+    @Description("The read timeout before the adjustment")
+    @Timespan
+    private long previousTimeout;
+
+    @Label("Timeout")
+    @Description("The read timeout after the adjustment")
+    @Timespan
+    private long timeout;
+
+    @Label("Samples")
+    @Description("The number of latencies the timeout is based on")
+    private long samples;
+
+    String getEndpoint() {
+      return this.endpoint;
+    }
+
+    void setEndpoint(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    long getPreviousTimeout() {
+      return this.previousTimeout;
+    }
+
+    void setPreviousTimeout(long previousTimeout) {
+      this.previousTimeout = previousTimeout;
+    }
+
+    long getTimeout() {
+      return this.timeout;
+    }
+
+    void setTimeout(long timeout) {
+      this.timeout = timeout;
+    }
+
+    long getSamples() {
+      return this.samples;
+    }
+
+    void setSamples(long samples) {
+      this.samples = samples;
+    }
+
+  }
+
+  @Label("Timeout")
+  @Description("A request to an endpoint timed out")
+  @Category("Spring REST")
+  static class TimeoutEvent extends Event {
+
+    @Label("Endpoint")
+    @Description("The URI of the endpoint")
+    private String endpoint;
+
+    @Label("Timeout")
+    @Description("The read timeout that was exceeded")
+    @Timespan
+    private long timeout;
+
+    String getEndpoint() {
+      return this.endpoint;
+    }
+
+    void setEndpoint(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    long getTimeout() {
+      return this.timeout;
+    }
+
+    void setTimeout(long timeout) {
+      this.timeout = timeout;
+    }
+
+  }
+
+}
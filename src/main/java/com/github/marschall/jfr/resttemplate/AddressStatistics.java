@@ -0,0 +1,130 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.net.InetAddress;
+
+/**
+ * Exponentially weighted moving averages of the latency and error rate of a
+ * single remote address.
+ */
+final class AddressStatistics {
+
+  /**
+   * The weight of a new sample.
+   */
+  static final double ALPHA = 0.2d;
+
+  private final InetAddress address;
+
+  private double latency;
+
+  private double errorRate;
+
+  private long requests;
+
+  private int inFlight;
+
+  private long ejectedUntil;
+
+  private long lastUpdate;
+
+  private long probeStarted;
+
+  AddressStatistics(InetAddress address) {
+    this.address = address;
+  }
+
+  InetAddress getAddress() {
+    return this.address;
+  }
+
+  synchronized double getLatency() {
+    return this.latency;
+  }
+
+  synchronized double getErrorRate() {
+    return this.errorRate;
+  }
+
+  synchronized long getRequests() {
+    return this.requests;
+  }
+
+  synchronized void begin() {
+    this.inFlight += 1;
+  }
+
+  synchronized void end(long latency, boolean error) {
+    this.inFlight -= 1;
+    this.lastUpdate = System.nanoTime();
+    this.probeStarted = 0L;
+    if (this.requests == 0L) {
+      this.latency = latency;
+      this.errorRate = error ? 1.0d : 0.0d;
+    } else {
+      this.latency += ALPHA * (latency - this.latency);
+      this.errorRate += ALPHA * ((error ? 1.0d : 0.0d) - this.errorRate);
+    }
+    this.requests += 1L;
+  }
+
+  /**
+   * Reserves a probe of this address if it has not been used yet or not for
+   * longer than the probe interval, otherwise an address that was slow once
+   * would never be used again. At most one probe is in flight, a reservation
+   * ends with the next completed request or after the probe interval in case
+   * the probe is never executed.
+   *
+   * @param now the current value of {@link System#nanoTime()}
+   * @param probeInterval the probe interval in nanoseconds
+   * @return whether the next request should be sent to this address
+   */
+  synchronized boolean tryProbe(long now, long probeInterval) {
+    if (this.requests != 0L && now - this.lastUpdate <= probeInterval) {
+      return false;
+    }
+    if (this.probeStarted != 0L && now - this.probeStarted <= probeInterval) {
+      return false;
+    }
+    // 0 means no probe
+    this.probeStarted = now | 1L;
+    return true;
+  }
+
+  /**
+   * Returns the expected latency of the next request. Addresses that have not
+   * been used yet are assumed to be as fast as the fastest known address.
+   * <p>
+   * Errors only slightly increase the expected latency, addresses with many
+   * errors are ejected instead.
+   *
+   * @param bestKnownLatency the lowest latency of all used addresses in
+   *                         nanoseconds
+   * @return the expected latency of the next request in nanoseconds
+   */
+  synchronized double getExpectedLatency(double bestKnownLatency) {
+    if (this.requests == 0L) {
+      return bestKnownLatency * (this.inFlight + 1);
+    }
+    return this.latency * (this.inFlight + 1) * (1.0d + this.errorRate);
+  }
+
+  synchronized boolean isEjected(long now) {
+    if (this.ejectedUntil == 0L) {
+      return false;
+    }
+    if (now - this.ejectedUntil < 0L) {
+      return true;
+    }
+    // the ejection is over, start from scratch so that the address is tried again
+    this.ejectedUntil = 0L;
+    this.latency = 0.0d;
+    this.errorRate = 0.0d;
+    this.requests = 0L;
+    return false;
+  }
+
+  synchronized void eject(long until) {
+    this.ejectedUntil = until;
+  }
+
+}
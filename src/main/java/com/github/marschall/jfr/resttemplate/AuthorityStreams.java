@@ -0,0 +1,81 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the streams to a single authority.
+ * <p>
+ * The JDK {@link java.net.http.HttpClient} does not expose its connections.
+ * Whether a HTTP/2 connection exists is inferred: it is assumed to exist
+ * after a HTTP/2 response until a request fails with an I/O error, the server
+ * responds with HTTP/1.1 or no stream was in flight for longer than the idle
+ * timeout of HTTP/2 connections.
+ */
+final class AuthorityStreams {
+
+  /**
+   * How long an idle HTTP/2 connection is assumed to stay open, the idle
+   * timeout of the JDK {@link java.net.http.HttpClient} if configured,
+   * otherwise 30 seconds which is shorter than the idle timeout of most
+   * servers.
+   */
+  static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(
+          Long.getLong("jdk.httpclient.keepalive.timeout.h2", Long.getLong("jdk.httpclient.keepalive.timeout", 30L)));
+
+  private final AtomicInteger inFlight;
+
+  private volatile boolean http2Established;
+
+  private volatile long lastResponse;
+
+  AuthorityStreams() {
+    this.inFlight = new AtomicInteger();
+  }
+
+  /**
+   * Called when a stream is opened.
+   *
+   * @return the number of streams in flight including the new one
+   */
+  int open() {
+    return this.inFlight.incrementAndGet();
+  }
+
+  void close() {
+    this.inFlight.decrementAndGet();
+  }
+
+  /**
+   * Whether a HTTP/2 connection to the authority is likely to exist. The JDK
+   * {@link java.net.http.HttpClient} keeps a single HTTP/2 connection per
+   * authority and reuses it for all streams.
+   *
+   * @param now the current value of {@link System#nanoTime()}
+   * @return whether a HTTP/2 connection is likely to exist
+   */
+  boolean isHttp2Established(long now) {
+    return this.http2Established
+        && (this.inFlight.get() > 0 || now - this.lastResponse < IDLE_TIMEOUT);
+  }
+
+  /**
+   * Called when response headers were received.
+   *
+   * @param http2 whether the response was received over HTTP/2
+   * @param now the current value of {@link System#nanoTime()}
+   */
+  void responded(boolean http2, long now) {
+    this.lastResponse = now;
+    this.http2Established = http2;
+  }
+
+  /**
+   * Called when a request failed with an I/O error, the connection may have
+   * been closed.
+   */
+  void connectionFailed() {
+    this.http2Established = false;
+  }
+
+}
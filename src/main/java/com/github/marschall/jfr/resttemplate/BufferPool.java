@@ -0,0 +1,269 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Percentage;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * A pool of fixed size heap segments that request bodies are buffered in.
+ * <p>
+ * At most {@link #getMaxSegments()} idle segments are retained. Request bodies
+ * larger than {@link #getMaxBodySize()} are not served from the pool in order
+ * not to drain it, the segments beyond the maximum body size are allocated
+ * instead.
+ * <p>
+ * Every pool periodically generates a "Buffer Pool" event with the number of
+ * pool hits, misses and oversize allocations since the last event.
+ *
+ * @see PooledBufferingClientHttpRequestFactory
+ */
+public final class BufferPool {
+
+  private static final Set<BufferPool> POOLS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  static {
+    FlightRecorder.addPeriodicEvent(BufferPoolEvent.class, BufferPool::emit);
+  }
+
+  private final int segmentSize;
+
+  private final int maxSegments;
+
+  private final long maxBodySize;
+
+  private final ArrayBlockingQueue<byte[]> segments;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder oversizeAllocations;
+
+  /**
+   * Constructs a new {@link BufferPool} with 8 KiB segments retaining at most
+   * 4 MiB and pooling bodies up to 1 MiB.
+   */
+  public BufferPool() {
+    this(8 * 1024, 512, 1024L * 1024L);
+  }
+
+  /**
+   * Constructs a new {@link BufferPool}.
+   *
+   * @param segmentSize the size of a segment in bytes, positive
+   * @param maxSegments the maximum number of idle segments retained, positive
+   * @param maxBodySize the maximum number of bytes of a body served from the
+   *                    pool, not negative
+   */
+  public BufferPool(int segmentSize, int maxSegments, long maxBodySize) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("segment size must be positive");
+    }
+    if (maxSegments <= 0) {
+      throw new IllegalArgumentException("maximum segments must be positive");
+    }
+    if (maxBodySize < 0L) {
+      throw new IllegalArgumentException("maximum body size must not be negative");
+    }
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.maxBodySize = maxBodySize;
+    this.segments = new ArrayBlockingQueue<>(maxSegments);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.oversizeAllocations = new LongAdder();
+    POOLS.add(this);
+  }
+
+  /**
+   * Returns the size of a segment in bytes.
+   *
+   * @return the size of a segment in bytes
+   */
+  public int getSegmentSize() {
+    return this.segmentSize;
+  }
+
+  /**
+   * Returns the maximum number of idle segments retained.
+   *
+   * @return the maximum number of idle segments retained
+   */
+  public int getMaxSegments() {
+    return this.maxSegments;
+  }
+
+  /**
+   * Returns the maximum number of bytes of a body served from the pool.
+   *
+   * @return the maximum number of bytes of a body served from the pool
+   */
+  public long getMaxBodySize() {
+    return this.maxBodySize;
+  }
+
+  /**
+   * Returns a segment for a body that already uses {@code bodySize} bytes.
+   *
+   * @param bodySize the number of bytes of the body buffered so far
+   * @return the segment, may not be zeroed
+   */
+  byte[] acquire(long bodySize) {
+    if (bodySize + this.segmentSize > this.maxBodySize) {
+      this.oversizeAllocations.increment();
+      return new byte[this.segmentSize];
+    }
+    byte[] segment = this.segments.poll();
+    if (segment != null) {
+      this.hits.increment();
+      return segment;
+    }
+    this.misses.increment();
+    return new byte[this.segmentSize];
+  }
+
+  /**
+   * Returns a segment to the pool, the segment must no longer be used.
+   *
+   * @param segment the segment returned by {@link #acquire(long)}
+   */
+  void release(byte[] segment) {
+    // when the pool is full the segment is left to the garbage collector
+    this.segments.offer(segment);
+  }
+
+  int getPooledSegments() {
+    return this.segments.size();
+  }
+
+  private static void emit() {
+    BufferPool[] pools;
+    synchronized (POOLS) {
+      pools = POOLS.toArray(new BufferPool[0]);
+    }
+    for (BufferPool pool : pools) {
+      long hits = pool.hits.sumThenReset();
+      long misses = pool.misses.sumThenReset();
+      long oversizeAllocations = pool.oversizeAllocations.sumThenReset();
+      int pooledSegments = pool.getPooledSegments();
+      BufferPoolEvent event = new BufferPoolEvent();
+      event.setSegmentSize(pool.segmentSize);
+      event.setPooledSegments(pooledSegments);
+      event.setPooledBytes((long) pooledSegments * pool.segmentSize);
+      event.setUsage((double) pooledSegments / (double) pool.maxSegments);
+      event.setHits(hits);
+      event.setMisses(misses);
+      event.setOversizeAllocations(oversizeAllocations);
+      event.commit();
+    }
+  }
+
+  @Label("Buffer Pool")
+  @Description("The usage of a request body buffer pool since the last event")
+  @Category("Spring REST")
+  @Period("60 s")
+  @StackTrace(false)
+  static class BufferPoolEvent extends Event {
+
+    @Label("Segment Size")
+    @Description("The size of a segment")
+    @DataAmount
+    private int segmentSize;
+
+    @Label("Pooled Segments")
+    @Description("The number of idle segments in the pool")
+    private int pooledSegments;
+
+    @Label("Pooled Bytes")
+    @Description("The memory retained by idle segments")
+    @DataAmount
+    private long pooledBytes;
+
+    @Label("Usage")
+    @Description("The fraction of the maximum number of segments retained")
+    @Percentage
+    private double usage;
+
+    @Label("Hits")
+    @Description("The number of segments served from the pool")
+    private long hits;
+
+    @Label("Misses")
+    @Description("The number of segments allocated because the pool was empty")
+    private long misses;
+
+    @Label("Oversize Allocations")
+    @Description("The number of segments allocated because the body exceeded the maximum body size")
+    private long oversizeAllocations;
+
+    int getSegmentSize() {
+      return this.segmentSize;
+    }
+
+    void setSegmentSize(int segmentSize) {
+      this.segmentSize = segmentSize;
+    }
+
+    int getPooledSegments() {
+      return this.pooledSegments;
+    }
+
+    void setPooledSegments(int pooledSegments) {
+      this.pooledSegments = pooledSegments;
+    }
+
+    long getPooledBytes() {
+      return this.pooledBytes;
+    }
+
+    void setPooledBytes(long pooledBytes) {
+      this.pooledBytes = pooledBytes;
+    }
+
+    double getUsage() {
+      return this.usage;
+    }
+
+    void setUsage(double usage) {
+      this.usage = usage;
+    }
+
+    long getHits() {
+      return this.hits;
+    }
+
+    void setHits(long hits) {
+      this.hits = hits;
+    }
+
+    long getMisses() {
+      return this.misses;
+    }
+
+    void setMisses(long misses) {
+      this.misses = misses;
+    }
+
+    long getOversizeAllocations() {
+      return this.oversizeAllocations;
+    }
+
+    void setOversizeAllocations(long oversizeAllocations) {
+      this.oversizeAllocations = oversizeAllocations;
+    }
+
+  }
+
+}
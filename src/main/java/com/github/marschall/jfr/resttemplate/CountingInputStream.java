@@ -0,0 +1,56 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that counts the number of bytes read.
+ * <p>
+ * The count may be read from a different thread than the one reading.
+ */
+final class CountingInputStream extends FilterInputStream {
+
+  private volatile long count;
+
+  CountingInputStream(InputStream in) {
+    super(in);
+  }
+
+  long getCount() {
+    return this.count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = this.in.read();
+    if (b != -1) {
+      this.count += 1L;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = this.in.read(b, off, len);
+    if (read > 0) {
+      this.count += read;
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = this.in.skip(n);
+    if (skipped > 0L) {
+      this.count += skipped;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+}
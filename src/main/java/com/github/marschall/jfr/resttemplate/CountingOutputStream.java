@@ -0,0 +1,34 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that counts the number of bytes written.
+ */
+final class CountingOutputStream extends FilterOutputStream {
+
+  private long count;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  long getCount() {
+    return this.count;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    this.out.write(b);
+    this.count += 1L;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    this.out.write(b, off, len);
+    this.count += len;
+  }
+
+}
@@ -0,0 +1,168 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Percentage;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Counts requests and errors per URI and periodically emits them as
+ * {@link ErrorRateEvent}s.
+ * <p>
+ * Counting does not allocate once an URI has been seen. In order to bound the
+ * memory used only the first {@value #MAX_ENDPOINTS} URIs are tracked, use URI
+ * templates rather than expanded URIs to keep the number of URIs low.
+ */
+final class EndpointErrorRates {
+
+  static final int MAX_ENDPOINTS = 1024;
+
+  private static final Map<String, Counters> COUNTERS = new ConcurrentHashMap<>();
+
+  private static final EventType ERROR_RATE_EVENT_TYPE;
+
+  static {
+    FlightRecorder.addPeriodicEvent(ErrorRateEvent.class, EndpointErrorRates::emit);
+    ERROR_RATE_EVENT_TYPE = EventType.getEventType(ErrorRateEvent.class);
+  }
+
+  private EndpointErrorRates() {
+    throw new AssertionError("not instantiable");
+  }
+
+  static void record(RestEvent event) {
+    if (!ERROR_RATE_EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    String uri = event.getUri();
+    Counters counters = COUNTERS.get(uri);
+    if (counters == null) {
+      if (COUNTERS.size() >= MAX_ENDPOINTS) {
+        return;
+      }
+      counters = COUNTERS.computeIfAbsent(uri, key -> new Counters());
+    }
+    counters.record(event.getFailurePhase());
+  }
+
+  private static void emit() {
+    for (Map.Entry<String, Counters> entry : COUNTERS.entrySet()) {
+      Counters counters = entry.getValue();
+      long requests = counters.requests.sumThenReset();
+      long errors = counters.errors.sumThenReset();
+      long timeouts = counters.timeouts.sumThenReset();
+      if (requests == 0L) {
+        continue;
+      }
+      ErrorRateEvent event = new ErrorRateEvent();
+      event.setUri(entry.getKey());
+      event.setRequests(requests);
+      event.setErrors(errors);
+      event.setTimeouts(timeouts);
+      event.setErrorRate((double) errors / (double) requests);
+      event.commit();
+    }
+  }
+
+  static final class Counters {
+
+    final LongAdder requests = new LongAdder();
+
+    final LongAdder errors = new LongAdder();
+
+    final LongAdder timeouts = new LongAdder();
+
+    void record(String failurePhase) {
+      this.requests.increment();
+      if (failurePhase != null) {
+        this.errors.increment();
+        if (JfrRestOperations.PHASE_TIMEOUT.equals(failurePhase)) {
+          this.timeouts.increment();
+        }
+      }
+    }
+
+  }
+
+  @Label("Error Rate")
+  @Description("The error rate of REST operations per URI")
+  @Category("Spring REST")
+  @Period("60 s")
+  @StackTrace(false)
+  static class ErrorRateEvent extends Event {
+
+    @Label("URI")
+    @Description("The HTTP URI")
+    private String uri;
+
+    @Label("Requests")
+    @Description("The number of operations in the period")
+    private long requests;
+
+    @Label("Errors")
+    @Description("The number of failed operations in the period")
+    private long errors;
+
+    @Label("Timeouts")
+    @Description("The number of operations in the period that failed with a read timeout")
+    private long timeouts;
+
+    @Label("Error Rate")
+    @Description("The fraction of failed operations in the period")
+    @Percentage
+    private double errorRate;
+
+    String getUri() {
+      return this.uri;
+    }
+
+    void setUri(String uri) {
+      this.uri = uri;
+    }
+
+    long getRequests() {
+      return this.requests;
+    }
+
+    void setRequests(long requests) {
+      this.requests = requests;
+    }
+
+    long getErrors() {
+      return this.errors;
+    }
+
+    void setErrors(long errors) {
+      this.errors = errors;
+    }
+
+    long getTimeouts() {
+      return this.timeouts;
+    }
+
+    void setTimeouts(long timeouts) {
+      this.timeouts = timeouts;
+    }
+
+    double getErrorRate() {
+      return this.errorRate;
+    }
+
+    void setErrorRate(double errorRate) {
+      this.errorRate = errorRate;
+    }
+
+  }
+
+}
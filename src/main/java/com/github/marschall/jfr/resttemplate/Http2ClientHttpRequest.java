@@ -0,0 +1,211 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.github.marschall.jfr.resttemplate.JfrHttp2ClientHttpRequestFactory.StreamEvent;
+
+/**
+ * Wraps a request of {@link org.springframework.http.client.JdkClientHttpRequestFactory}
+ * and generates a {@link StreamEvent}.
+ * <p>
+ * Streaming bodies are passed on to the actual request. Buffered bodies are
+ * not copied into the actual request, they are sent with
+ * {@link BodyPublishers#ofByteArray(byte[], int, int)} instead, see
+ * {@link #prepare(HttpRequest)}.
+ */
+final class Http2ClientHttpRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+  /**
+   * The request being executed on this thread, allows
+   * {@link InstrumentedHttpClient} to call back.
+   */
+  static final ThreadLocal<Http2ClientHttpRequest> CURRENT = new ThreadLocal<>();
+
+  private final ClientHttpRequest delegate;
+
+  private final Duration timeout;
+
+  private final AuthorityStreams streams;
+
+  private final AdaptiveTimeouts adaptiveTimeouts;
+
+  private final String endpoint;
+
+  private BodyBuffer bodyBuffer;
+
+  private boolean streaming;
+
+  private CompletableFuture<? extends HttpResponse<?>> responseFuture;
+
+  Http2ClientHttpRequest(ClientHttpRequest delegate, Duration timeout, AuthorityStreams streams,
+          AdaptiveTimeouts adaptiveTimeouts, String endpoint) {
+    this.delegate = delegate;
+    this.timeout = timeout;
+    this.streams = streams;
+    this.adaptiveTimeouts = adaptiveTimeouts;
+    this.endpoint = endpoint;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return this.delegate.getMethod();
+  }
+
+  @Override
+  public URI getURI() {
+    return this.delegate.getURI();
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return this.delegate.getAttributes();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public OutputStream getBody() {
+    if (this.streaming) {
+      throw new IllegalStateException("Invoke either getBody or setBody; not both");
+    }
+    // the converter does not support streaming, we have to buffer
+    if (this.bodyBuffer == null) {
+      this.bodyBuffer = new BodyBuffer();
+    }
+    return this.bodyBuffer;
+  }
+
+  @Override
+  public void setBody(Body body) {
+    if (this.bodyBuffer != null) {
+      throw new IllegalStateException("Invoke either getBody or setBody; not both");
+    }
+    ((StreamingHttpOutputMessage) this.delegate).setBody(body);
+    this.streaming = true;
+  }
+
+  /**
+   * Called by {@link InstrumentedHttpClient} with the request built by the
+   * actual request.
+   *
+   * @param request the request built by the actual request
+   * @return the request to send
+   */
+  HttpRequest prepare(HttpRequest request) {
+    if (this.timeout == null && this.bodyBuffer == null) {
+      return request;
+    }
+    HttpRequest.Builder builder = HttpRequest.newBuilder(request, (name, value) -> true);
+    if (this.timeout != null) {
+      // unlike the read timeout of the actual request factory only covers
+      // receiving the response headers and distinguishes connect timeouts
+      builder.timeout(this.timeout);
+    }
+    if (this.bodyBuffer != null) {
+      builder.method(request.method(), this.bodyBuffer.publisher());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Called by {@link InstrumentedHttpClient} once the request has been sent.
+   *
+   * @param future the future of the response
+   */
+  void sent(CompletableFuture<? extends HttpResponse<?>> future) {
+    this.responseFuture = future;
+  }
+
+  @Override
+  public ClientHttpResponse execute() throws IOException {
+    StreamEvent event = new StreamEvent();
+    event.setMethod(this.getMethod().name());
+    event.setUri(this.getURI().toString());
+    long start = System.nanoTime();
+    event.setConnectionReused(this.streams.isHttp2Established(start));
+    event.begin();
+    event.setConcurrentStreams(this.streams.open());
+    ClientHttpResponse response;
+    CURRENT.set(this);
+    try {
+      response = this.delegate.execute();
+    } catch (IOException | RuntimeException e) {
+      if (e instanceof HttpTimeoutException) {
+        if (this.endpoint != null && !(e instanceof HttpConnectTimeoutException)) {
+          this.adaptiveTimeouts.recordTimeout(this.endpoint, this.timeout.toNanos());
+        }
+      } else if (e instanceof IOException) {
+        // the connection may be gone, the next stream may open a new one
+        this.streams.connectionFailed();
+      }
+      this.streams.close();
+      event.setExceptionType(e.getClass());
+      event.end();
+      event.commit();
+      throw e;
+    } finally {
+      CURRENT.remove();
+      this.bodyBuffer = null;
+    }
+    long end = System.nanoTime();
+    if (this.endpoint != null) {
+      this.adaptiveTimeouts.recordLatency(this.endpoint, end - start);
+    }
+    // complete since the actual request has returned
+    HttpResponse<?> httpResponse = this.responseFuture.getNow(null);
+    HttpClient.Version version = httpResponse.version();
+    this.streams.responded(version == HttpClient.Version.HTTP_2, end);
+    event.setProtocol(getProtocol(version));
+    event.setStatusCode(httpResponse.statusCode());
+    return new Http2ClientHttpResponse(response, event, this.streams);
+  }
+
+  static String getProtocol(HttpClient.Version version) {
+    switch (version) {
+      case HTTP_1_1:
+        return "HTTP/1.1";
+      case HTTP_2:
+        return "HTTP/2";
+      default:
+        return version.name();
+    }
+  }
+
+  /**
+   * Gives access to the buffer so that it can be sent without copying.
+   */
+  static final class BodyBuffer extends ByteArrayOutputStream {
+
+    BodyBuffer() {
+      super(1024);
+    }
+
+    BodyPublisher publisher() {
+      return BodyPublishers.ofByteArray(this.buf, 0, this.count);
+    }
+
+  }
+
+}
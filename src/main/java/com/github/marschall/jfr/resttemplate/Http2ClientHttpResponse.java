@@ -0,0 +1,67 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.github.marschall.jfr.resttemplate.JfrHttp2ClientHttpRequestFactory.StreamEvent;
+
+/**
+ * Wraps a {@link ClientHttpResponse} of a {@link Http2ClientHttpRequest}.
+ * Ends the stream event when closed.
+ */
+final class Http2ClientHttpResponse implements ClientHttpResponse {
+
+  private final ClientHttpResponse delegate;
+
+  private final StreamEvent event;
+
+  private final AuthorityStreams streams;
+
+  private boolean closed;
+
+  Http2ClientHttpResponse(ClientHttpResponse delegate, StreamEvent event, AuthorityStreams streams) {
+    this.delegate = delegate;
+    this.event = event;
+    this.streams = streams;
+  }
+
+  @Override
+  public HttpStatusCode getStatusCode() throws IOException {
+    return this.delegate.getStatusCode();
+  }
+
+  @Override
+  public String getStatusText() throws IOException {
+    return this.delegate.getStatusText();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public InputStream getBody() throws IOException {
+    return this.delegate.getBody();
+  }
+
+  @Override
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      this.delegate.close();
+    } finally {
+      this.streams.close();
+      this.event.end();
+      this.event.commit();
+    }
+  }
+
+}
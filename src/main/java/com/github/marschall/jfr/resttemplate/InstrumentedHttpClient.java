@@ -0,0 +1,115 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A {@link HttpClient} that lets the {@link Http2ClientHttpRequest} executed
+ * on the current thread adjust the {@link HttpRequest} built by
+ * {@link org.springframework.http.client.JdkClientHttpRequestFactory} and
+ * observe the {@link HttpResponse}, which the request factory does not expose.
+ * Everything else is delegated unchanged.
+ */
+final class InstrumentedHttpClient extends HttpClient {
+
+  private final HttpClient delegate;
+
+  InstrumentedHttpClient(HttpClient delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Optional<CookieHandler> cookieHandler() {
+    return this.delegate.cookieHandler();
+  }
+
+  @Override
+  public Optional<Duration> connectTimeout() {
+    return this.delegate.connectTimeout();
+  }
+
+  @Override
+  public Redirect followRedirects() {
+    return this.delegate.followRedirects();
+  }
+
+  @Override
+  public Optional<ProxySelector> proxy() {
+    return this.delegate.proxy();
+  }
+
+  @Override
+  public SSLContext sslContext() {
+    return this.delegate.sslContext();
+  }
+
+  @Override
+  public SSLParameters sslParameters() {
+    return this.delegate.sslParameters();
+  }
+
+  @Override
+  public Optional<Authenticator> authenticator() {
+    return this.delegate.authenticator();
+  }
+
+  @Override
+  public Version version() {
+    return this.delegate.version();
+  }
+
+  @Override
+  public Optional<Executor> executor() {
+    return this.delegate.executor();
+  }
+
+  @Override
+  public WebSocket.Builder newWebSocketBuilder() {
+    return this.delegate.newWebSocketBuilder();
+  }
+
+  @Override
+  public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+    Http2ClientHttpRequest current = Http2ClientHttpRequest.CURRENT.get();
+    if (current == null) {
+      return this.delegate.send(request, responseBodyHandler);
+    }
+    HttpResponse<T> response = this.delegate.send(current.prepare(request), responseBodyHandler);
+    current.sent(CompletableFuture.completedFuture(response));
+    return response;
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler) {
+    return this.sendAsync(request, responseBodyHandler, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler,
+          PushPromiseHandler<T> pushPromiseHandler) {
+    Http2ClientHttpRequest current = Http2ClientHttpRequest.CURRENT.get();
+    if (current == null) {
+      return this.delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+    }
+    CompletableFuture<HttpResponse<T>> future = this.delegate.sendAsync(current.prepare(request), responseBodyHandler, pushPromiseHandler);
+    // the future itself is returned so that cancelling it cancels the exchange
+    current.sent(future);
+    return future;
+  }
+
+}
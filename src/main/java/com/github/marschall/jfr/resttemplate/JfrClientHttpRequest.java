@@ -0,0 +1,85 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+/**
+ * Wraps a {@link ClientHttpRequest} and adds HTTP level information to a
+ * {@link RestEvent}.
+ */
+class JfrClientHttpRequest implements ClientHttpRequest {
+
+  final ClientHttpRequest delegate;
+
+  final RestEvent event;
+
+  private CountingOutputStream body;
+
+  private long bodyStart;
+
+  JfrClientHttpRequest(ClientHttpRequest delegate, RestEvent event) {
+    this.delegate = delegate;
+    this.event = event;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return this.delegate.getMethod();
+  }
+
+  @Override
+  public URI getURI() {
+    return this.delegate.getURI();
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return this.delegate.getAttributes();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public OutputStream getBody() throws IOException {
+    if (this.body == null) {
+      this.bodyStart = System.nanoTime();
+      this.body = new CountingOutputStream(this.delegate.getBody());
+    }
+    return this.body;
+  }
+
+  @Override
+  public ClientHttpResponse execute() throws IOException {
+    if (this.body != null) {
+      this.recordRequestBody(this.body.getCount(), System.nanoTime() - this.bodyStart);
+    }
+    this.event.setRequestHeaders(this.delegate.getHeaders());
+    long start = System.nanoTime();
+    ClientHttpResponse response = this.delegate.execute();
+    // some requests, eg. of SimpleClientHttpRequestFactory with a body, only
+    // send the request in execute(), the status code forces reading the headers
+    int statusCode = response.getStatusCode().value();
+    long firstByte = System.nanoTime();
+    this.event.setTimeToFirstByte(firstByte - start);
+    this.event.setStatusCode(statusCode);
+    return new JfrClientHttpResponse(response, this.event, firstByte);
+  }
+
+  void recordRequestBody(long size, long serializationTime) {
+    this.event.setRequestSize(size);
+    this.event.setSerializationTime(serializationTime);
+  }
+
+}
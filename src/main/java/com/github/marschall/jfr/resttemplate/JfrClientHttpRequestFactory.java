@@ -0,0 +1,52 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.AbstractClientHttpRequestFactoryWrapper;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+/**
+ * A {@link ClientHttpRequestFactory} that adds HTTP level information to the
+ * events generated by {@link JfrRestOperations}.
+ * <p>
+ * Currently this is the request factory used, the status code of every
+ * response, the size of the serialized request body and the time spent
+ * serializing and writing it, the time to first byte, the size of the
+ * response body and the throughput while reading it. While a response body
+ * is being read "Progress" events are generated periodically.
+ * <p>
+ * Has to be used together with {@link JfrRestOperations}, does not generate
+ * any operation events on its own.
+ */
+public final class JfrClientHttpRequestFactory extends AbstractClientHttpRequestFactoryWrapper {
+
+  /**
+   * Constructs a new {@link JfrClientHttpRequestFactory}.
+   *
+   * @param requestFactory the actual {@link ClientHttpRequestFactory} implementation, not {@code null}
+   */
+  public JfrClientHttpRequestFactory(ClientHttpRequestFactory requestFactory) {
+    super(requestFactory);
+  }
+
+  @Override
+  protected ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod, ClientHttpRequestFactory requestFactory) throws IOException {
+    ClientHttpRequest request = requestFactory.createRequest(uri, httpMethod);
+    RestEvent event = JfrRestOperations.CURRENT_EVENT.get();
+    if (event == null || !event.isEnabled()) {
+      return request;
+    }
+    event.setRequestFactory(requestFactory.getClass());
+    if (request instanceof StreamingHttpOutputMessage) {
+      return new JfrStreamingClientHttpRequest(request, event);
+    }
+    return new JfrClientHttpRequest(request, event);
+  }
+
+}
@@ -0,0 +1,75 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+/**
+ * Wraps a {@link ClientHttpResponse} and records the size of the response
+ * body and the throughput while reading it.
+ */
+final class JfrClientHttpResponse implements ClientHttpResponse {
+
+  private final ClientHttpResponse delegate;
+
+  private final RestEvent event;
+
+  private final long firstByte;
+
+  private CountingInputStream body;
+
+  private TransferProgress.Transfer transfer;
+
+  JfrClientHttpResponse(ClientHttpResponse delegate, RestEvent event, long firstByte) {
+    this.delegate = delegate;
+    this.event = event;
+    this.firstByte = firstByte;
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public InputStream getBody() throws IOException {
+    if (this.body == null) {
+      this.body = new CountingInputStream(this.delegate.getBody());
+      this.transfer = TransferProgress.begin(this.event, this.body, this.firstByte);
+    }
+    return this.body;
+  }
+
+  @Override
+  public HttpStatusCode getStatusCode() throws IOException {
+    return this.delegate.getStatusCode();
+  }
+
+  @Override
+  public String getStatusText() throws IOException {
+    return this.delegate.getStatusText();
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.delegate.close();
+    } finally {
+      if (this.body != null) {
+        long size = this.body.getCount();
+        long duration = System.nanoTime() - this.firstByte;
+        this.event.setResponseSize(size);
+        if (duration > 0L) {
+          this.event.setThroughput(TransferProgress.bytesPerSecond(size, duration));
+        }
+        TransferProgress.end(this.transfer);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * A {@link ClientHttpRequestFactory} that wraps a {@link JdkClientHttpRequestFactory}
+ * with a JDK {@link HttpClient} that prefers HTTP/2 and generates a
+ * "HTTP Stream" event for every request, from sending the request until the
+ * response is closed.
+ * <p>
+ * With HTTP/2 the JDK {@link HttpClient} multiplexes all requests to the same
+ * authority over a single connection. Request bodies written through
+ * {@link org.springframework.http.StreamingHttpOutputMessage} are streamed to
+ * the connection and response bodies are streamed from the connection, neither
+ * is fully buffered. Buffered request bodies are sent without being copied.
+ * <p>
+ * Plain {@code http} URIs use an {@code h2c} upgrade which the server may
+ * decline, the protocol actually used is recorded in the events.
+ */
+public final class JfrHttp2ClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+  private final JdkClientHttpRequestFactory requestFactory;
+
+  private final Map<String, AuthorityStreams> authorities;
+
+  private Duration readTimeout;
+
+  private AdaptiveTimeouts adaptiveTimeouts;
+
+  /**
+   * Constructs a new {@link JfrHttp2ClientHttpRequestFactory} with a default
+   * {@link HttpClient} that prefers HTTP/2.
+   */
+  public JfrHttp2ClientHttpRequestFactory() {
+    this(HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .build());
+  }
+
+  /**
+   * Constructs a new {@link JfrHttp2ClientHttpRequestFactory}.
+   *
+   * @param httpClient the client to use, should prefer
+   *                   {@link HttpClient.Version#HTTP_2}, not {@code null}
+   */
+  public JfrHttp2ClientHttpRequestFactory(HttpClient httpClient) {
+    Objects.requireNonNull(httpClient, "httpClient");
+    this.requestFactory = new JdkClientHttpRequestFactory(new InstrumentedHttpClient(httpClient));
+    this.authorities = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Sets the timeout for receiving the response headers.
+   *
+   * @param readTimeout the read timeout, {@code null} for no timeout
+   */
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Sets adaptive timeouts that derive the read timeout of each endpoint from
+   * its observed latency. The latency is measured from executing the request
+   * until the response headers have been received. Requests not made through
+   * {@link JfrRestOperations} use {@link #setReadTimeout(Duration)} instead.
+   *
+   * @param adaptiveTimeouts the adaptive timeouts, {@code null} to use only
+   *                         {@link #setReadTimeout(Duration)}
+   */
+  public void setAdaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+    this.adaptiveTimeouts = adaptiveTimeouts;
+  }
+
+  @Override
+  public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+    AuthorityStreams streams = this.authorities.computeIfAbsent(uri.getRawAuthority(), authority -> new AuthorityStreams());
+    Duration timeout = this.readTimeout;
+    String endpoint = null;
+    AdaptiveTimeouts timeouts = this.adaptiveTimeouts;
+    if (timeouts != null) {
+      RestEvent event = JfrRestOperations.CURRENT_EVENT.get();
+      // cold latencies during warm-up would distort the timeouts
+      if (event != null && !event.isWarmup()) {
+        endpoint = event.getUri();
+        timeout = Duration.ofNanos(timeouts.getTimeout(endpoint));
+      }
+    }
+    ClientHttpRequest request = this.requestFactory.createRequest(uri, httpMethod);
+    return new Http2ClientHttpRequest(request, timeout, streams, timeouts, endpoint);
+  }
+
+  @Label("HTTP Stream")
+  @Description("A request executed by the JDK HttpClient")
+  @Category("Spring REST")
+  static class StreamEvent extends Event {
+
+    @Label("Method")
+    @Description("The name of the HTTP method")
+    private String method;
+
+    @Label("URI")
+    @Description("The HTTP URI")
+    private String uri;
+
+    @Label("Protocol")
+    @Description("The negotiated protocol version")
+    private String protocol;
+
+    @Label("Status Code")
+    @Description("The HTTP status code of the response, 0 if none was received")
+    private int statusCode;
+
+    @Label("Connection Reused")
+    @Description("Whether a HTTP/2 connection to the authority likely existed already, inferred from the previous streams to the authority")
+    private boolean connectionReused;
+
+    @Label("Concurrent Streams")
+    @Description("The number of streams in flight to the authority when the stream was opened, including this one")
+    private int concurrentStreams;
+
+    @Label("Exception Type")
+    @Description("The type of the exception thrown, if any")
+    private Class<?> exceptionType;
+
+    String getMethod() {
+      return this.method;
+    }
+
+    void setMethod(String method) {
+      this.method = method;
+    }
+
+    String getUri() {
+      return this.uri;
+    }
+
+    void setUri(String uri) {
+      this.uri = uri;
+    }
+
+    String getProtocol() {
+      return this.protocol;
+    }
+
+    void setProtocol(String protocol) {
+      this.protocol = protocol;
+    }
+
+    int getStatusCode() {
+      return this.statusCode;
+    }
+
+    void setStatusCode(int statusCode) {
+      this.statusCode = statusCode;
+    }
+
+    boolean isConnectionReused() {
+      return this.connectionReused;
+    }
+
+    void setConnectionReused(boolean connectionReused) {
+      this.connectionReused = connectionReused;
+    }
+
+    int getConcurrentStreams() {
+      return this.concurrentStreams;
+    }
+
+    void setConcurrentStreams(int concurrentStreams) {
+      this.concurrentStreams = concurrentStreams;
+    }
+
+    Class<?> getExceptionType() {
+      return this.exceptionType;
+    }
+
+    void setExceptionType(Class<?> exceptionType) {
+      this.exceptionType = exceptionType;
+    }
+
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.observation.ClientRequestObservationContext;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import io.micrometer.observation.Observation.Context;
+import io.micrometer.observation.ObservationHandler;
+
+/**
+ * An {@link ObservationHandler} that generates the same JFR events as
+ * {@link JfrRestOperations} from the observations of a
+ * {@link org.springframework.web.client.RestTemplate} or
+ * {@link org.springframework.web.client.RestClient}.
+ * <p>
+ * Use this instead of {@link JfrRestOperations} when the client is already
+ * instrumented through an {@link io.micrometer.observation.ObservationRegistry}.
+ * The URI recorded is the URI template of the observation, the operation name
+ * is the name of the observation. The request body and
+ * {@link JfrClientHttpRequestFactory} are not supported as the request is
+ * created before the observation is started.
+ */
+public final class JfrObservationHandler implements ObservationHandler<ClientRequestObservationContext> {
+
+  private final TraceContextProvider traceContextProvider;
+
+  /**
+   * Constructs a new {@link JfrObservationHandler}.
+   */
+  public JfrObservationHandler() {
+    this.traceContextProvider = null;
+  }
+
+  /**
+   * Constructs a new {@link JfrObservationHandler} that records trace and span ids.
+   *
+   * @param traceContextProvider provides the trace and span ids, only called
+   *                             for events that are committed, not {@code null}
+   */
+  public JfrObservationHandler(TraceContextProvider traceContextProvider) {
+    Objects.requireNonNull(traceContextProvider, "traceContextProvider");
+    this.traceContextProvider = traceContextProvider;
+  }
+
+  @Override
+  public boolean supportsContext(Context context) {
+    return context instanceof ClientRequestObservationContext;
+  }
+
+  @Override
+  public void onStart(ClientRequestObservationContext context) {
+    RestEvent event = JfrRestOperations.newEvent();
+    event.begin();
+    context.put(RestEvent.class, event);
+  }
+
+  @Override
+  public void onStop(ClientRequestObservationContext context) {
+    RestEvent event = context.get(RestEvent.class);
+    if (event == null) {
+      return;
+    }
+    event.end();
+    ClientHttpRequest request = context.getCarrier();
+    String uriTemplate = context.getUriTemplate();
+    if (uriTemplate != null) {
+      event.setUri(uriTemplate);
+    } else if (event.shouldCommit()) {
+      event.setUri(request.getURI().toString());
+    }
+    Throwable error = context.getError();
+    if (error != null) {
+      JfrRestOperations.recordFailure(event, error);
+    }
+    // expanded URIs are not tracked to keep the number of URIs bounded
+    if (uriTemplate != null && !event.isWarmup()) {
+      EndpointErrorRates.record(event);
+    }
+    if (event.shouldCommit()) {
+      event.setMethod(request.getMethod().name());
+      event.setOperationName(context.getName());
+      event.setVirtualThread(VirtualThreads.isVirtual(Thread.currentThread()));
+      ClientHttpResponse response = context.getResponse();
+      if (response != null && event.getStatusCode() == 0) {
+        try {
+          event.setStatusCode(response.getStatusCode().value());
+        } catch (IOException e) {
+          // ignore, no status code available
+        }
+      }
+      if (this.traceContextProvider != null) {
+        event.setTraceId(this.traceContextProvider.getTraceId(request.getHeaders()));
+        event.setSpanId(this.traceContextProvider.getSpanId(request.getHeaders()));
+      }
+    }
+    event.commit();
+  }
+
+}
@@ -3,7 +3,13 @@ package com.github.marschall.jfr.resttemplate;
 import java.lang.reflect.Array;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
@@ -15,14 +21,21 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConversionException;
 import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.UnknownContentTypeException;
 
 import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
 import jdk.jfr.Description;
 import jdk.jfr.Event;
+import jdk.jfr.Frequency;
 import jdk.jfr.Label;
+import jdk.jfr.Timespan;
 
 /**
  * An implementation of {@link RestOperations} that generates JFR events.
@@ -30,8 +43,29 @@ import jdk.jfr.Label;
  */
 public final class JfrRestOperations implements RestOperations {
 
+  /**
+   * The event of the operation currently in progress on this thread, allows
+   * {@link JfrClientHttpRequestFactory} to add information that is only
+   * available at the HTTP level.
+   */
+  static final ThreadLocal<RestEvent> CURRENT_EVENT = new ThreadLocal<>();
+
+  static final String PHASE_CONNECT = "connect";
+
+  static final String PHASE_TIMEOUT = "read timeout";
+
+  static final String PHASE_IO = "io";
+
+  static final String PHASE_STATUS = "status";
+
+  static final String PHASE_CONVERSION = "conversion";
+
+  static final String PHASE_OTHER = "other";
+
   private final RestOperations delegate;
 
+  private final TraceContextProvider traceContextProvider;
+
   /**
    * Constructs a new {@link JfrRestOperations}.
    *
@@ -40,687 +74,815 @@ public final class JfrRestOperations implements RestOperations {
   public JfrRestOperations(RestOperations delegate) {
     Objects.requireNonNull(delegate, "delegate");
     this.delegate = delegate;
+    this.traceContextProvider = null;
+  }
+
+  /**
+   * Constructs a new {@link JfrRestOperations} that records trace and span ids.
+   *
+   * @param delegate the actual {@link RestOperations} implementation, not {@code null}
+   * @param traceContextProvider provides the trace and span ids, only called
+   *                             for events that are committed, not {@code null}
+   */
+  public JfrRestOperations(RestOperations delegate, TraceContextProvider traceContextProvider) {
+    Objects.requireNonNull(delegate, "delegate");
+    Objects.requireNonNull(traceContextProvider, "traceContextProvider");
+    this.delegate = delegate;
+    this.traceContextProvider = traceContextProvider;
   }
 
   @Override
   public <T> T getForObject(String url, Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("GET");
     event.setOperationName("getForObject");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.getForObject(url, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T getForObject(String url, Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("GET");
     event.setOperationName("getForObject");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.getForObject(url, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T getForObject(URI url, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("GET");
     event.setOperationName("getForObject");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.getForObject(url, responseType);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> getForEntity(String url, Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("GET");
     event.setOperationName("getForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.getForEntity(url, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> getForEntity(String url, Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("GET");
     event.setOperationName("getForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.getForEntity(url, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> getForEntity(URI url, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("GET");
     event.setOperationName("getForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.getForEntity(url, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public HttpHeaders headForHeaders(String url, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("HEAD");
     event.setOperationName("headForHeaders");
     event.setResponseType(HttpHeaders.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       HttpHeaders headers = this.delegate.headForHeaders(url, uriVariables);
       event.setObjectCount(headers.size());
       return headers;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public HttpHeaders headForHeaders(String url, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("HEAD");
     event.setOperationName("headForHeaders");
     event.setResponseType(HttpHeaders.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       HttpHeaders headers = this.delegate.headForHeaders(url, uriVariables);
       event.setObjectCount(headers.size());
       return headers;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public HttpHeaders headForHeaders(URI url) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("HEAD");
     event.setOperationName("headForHeaders");
     event.setResponseType(HttpHeaders.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       HttpHeaders headers = this.delegate.headForHeaders(url);
       event.setObjectCount(headers.size());
       return headers;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public URI postForLocation(String url, Object request, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForLocation");
     event.setResponseType(URI.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       return this.delegate.postForLocation(url, request, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public URI postForLocation(String url, Object request, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForLocation");
     event.setResponseType(URI.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       return this.delegate.postForLocation(url, request, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public URI postForLocation(URI url, Object request) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("POST");
     event.setOperationName("postForLocation");
     event.setResponseType(URI.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       return this.delegate.postForLocation(url, request);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T postForObject(String url, Object request, Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.postForObject(url, request, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T postForObject(String url, Object request, Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.postForObject(url, request, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T postForObject(URI url, Object request, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("POST");
     event.setOperationName("postForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.postForObject(url, request, responseType);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> postForEntity(String url, Object request, Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.postForEntity(url, request, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> postForEntity(String url, Object request, Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("POST");
     event.setOperationName("postForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.postForEntity(url, request, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> postForEntity(URI url, Object request, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("POST");
     event.setOperationName("postForEntity");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.postForEntity(url, request, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void put(String url, Object request, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("PUT");
     event.setOperationName("put");
     event.setResponseType(Void.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       this.delegate.put(url, request, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void put(String url, Object request, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("PUT");
     event.setOperationName("put");
     event.setResponseType(Void.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       this.delegate.put(url, request, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void put(URI url, Object request) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("PUT");
     event.setOperationName("put");
     event.setResponseType(Void.class);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       this.delegate.put(url, request);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T patchForObject(String url, Object request, Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("PATCH");
     event.setOperationName("patchForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.patchForObject(url, request, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T patchForObject(String url, Object request, Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("PATCH");
     event.setOperationName("patchForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.patchForObject(url, request, responseType, uriVariables);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T patchForObject(URI url, Object request, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("PATCH");
     event.setOperationName("patchForObject");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, request);
+    RestEvent previous = begin(event);
     try {
       T object = this.delegate.patchForObject(url, request, responseType);
       event.setObjectCount(getObjectCount(object));
       return object;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void delete(String url, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("DELETE");
     event.setOperationName("delete");
     event.setResponseType(Void.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       this.delegate.delete(url, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void delete(String url, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("DELETE");
     event.setOperationName("delete");
     event.setResponseType(Void.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       this.delegate.delete(url, uriVariables);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public void delete(URI url) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("DELETE");
     event.setOperationName("delete");
     event.setResponseType(Void.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       this.delegate.delete(url);
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public Set<HttpMethod> optionsForAllow(String url, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("OPTIONS");
     event.setOperationName("optionsForAllow");
     event.setResponseType(Set.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       Set<HttpMethod> allow = this.delegate.optionsForAllow(url, uriVariables);
       event.setObjectCount(allow.size());
       return allow;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public Set<HttpMethod> optionsForAllow(String url, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod("OPTIONS");
     event.setOperationName("optionsForAllow");
     event.setResponseType(Set.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       Set<HttpMethod> allow = this.delegate.optionsForAllow(url, uriVariables);
       event.setObjectCount(allow.size());
       return allow;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public Set<HttpMethod> optionsForAllow(URI url) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod("OPTIONS");
     event.setOperationName("optionsForAllow");
     event.setResponseType(Set.class);
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       Set<HttpMethod> allow = this.delegate.optionsForAllow(url);
       event.setObjectCount(allow.size());
       return allow;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
       Class<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
       Class<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(URI url, HttpMethod method, HttpEntity<?> requestEntity, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
       ParameterizedTypeReference<T> responseType, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(extractResponseType(responseType));
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
       ParameterizedTypeReference<T> responseType, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(extractResponseType(responseType));
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType, uriVariables);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(URI url, HttpMethod method, HttpEntity<?> requestEntity,
       ParameterizedTypeReference<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod(method.name());
     event.setOperationName("exchange");
     event.setResponseType(extractResponseType(responseType));
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(url, method, requestEntity, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(RequestEntity<?> requestEntity, Class<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(requestEntity.getUrl().toString());
     event.setMethod(requestEntity.getMethod().name());
     event.setOperationName("exchange");
     event.setResponseType(responseType);
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(requestEntity, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> ResponseEntity<T> exchange(RequestEntity<?> requestEntity, ParameterizedTypeReference<T> responseType) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(requestEntity.getUrl().toString());
     event.setMethod(requestEntity.getMethod().name());
     event.setOperationName("exchange");
     event.setResponseType(extractResponseType(responseType));
-    event.begin();
+    setRequest(event, requestEntity);
+    RestEvent previous = begin(event);
     try {
       ResponseEntity<T> entity = this.delegate.exchange(requestEntity, responseType);
+      event.setStatusCode(entity.getStatusCode().value());
       event.setObjectCount(getObjectCount(entity));
       return entity;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
       ResponseExtractor<T> responseExtractor, Object... uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T response = this.delegate.execute(url, method, requestCallback, responseExtractor, uriVariables);
       if (response != null) {
@@ -728,20 +890,22 @@ public final class JfrRestOperations implements RestOperations {
       }
       event.setObjectCount(getObjectCount(response));
       return response;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
       ResponseExtractor<T> responseExtractor, Map<String, ?> uriVariables) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url);
     event.setMethod(method.name());
     event.setOperationName("exchange");
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T response = this.delegate.execute(url, method, requestCallback, responseExtractor, uriVariables);
       if (response != null) {
@@ -749,20 +913,22 @@ public final class JfrRestOperations implements RestOperations {
       }
       event.setObjectCount(getObjectCount(response));
       return response;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
   @Override
   public <T> T execute(URI url, HttpMethod method, RequestCallback requestCallback,
       ResponseExtractor<T> responseExtractor) {
-    RestEvent event = new RestEvent();
+    RestEvent event = newEvent();
     event.setUri(url.toString());
     event.setMethod(method.name());
     event.setOperationName("exchange");
-    event.begin();
+    RestEvent previous = begin(event);
     try {
       T response = this.delegate.execute(url, method, requestCallback, responseExtractor);
       if (response != null) {
@@ -770,9 +936,11 @@ public final class JfrRestOperations implements RestOperations {
       }
       event.setObjectCount(getObjectCount(response));
       return response;
+    } catch (RuntimeException e) {
+      recordFailure(event, e);
+      throw e;
     } finally {
-      event.end();
-      event.commit();
+      this.end(event, previous);
     }
   }
 
@@ -791,6 +959,125 @@ public final class JfrRestOperations implements RestOperations {
     return null;
   }
 
+  /**
+   * Creates the event of an operation, tagged if performed by
+   * {@link RestWarmup}.
+   */
+  static RestEvent newEvent() {
+    RestEvent event = new RestEvent();
+    event.setWarmup(RestWarmup.isWarmingUp());
+    return event;
+  }
+
+  /**
+   * Begins the event and makes it the current event of this thread.
+   *
+   * @param event the event of the operation
+   * @return the current event of the enclosing operation, if any, operations
+   *         nest when called from an interceptor or a converter
+   */
+  private static RestEvent begin(RestEvent event) {
+    RestEvent previous = CURRENT_EVENT.get();
+    event.begin();
+    CURRENT_EVENT.set(event);
+    return previous;
+  }
+
+  /**
+   * Ends and commits the event and restores the current event of the
+   * enclosing operation.
+   *
+   * @param event the event of the operation
+   * @param previous the value returned by {@link #begin(RestEvent)}
+   */
+  private void end(RestEvent event, RestEvent previous) {
+    if (previous == null) {
+      CURRENT_EVENT.remove();
+    } else {
+      CURRENT_EVENT.set(previous);
+    }
+    event.end();
+    this.completed(event);
+    event.commit();
+  }
+
+  private void completed(RestEvent event) {
+    if (!event.isWarmup()) {
+      EndpointErrorRates.record(event);
+    }
+    if (event.shouldCommit()) {
+      event.setVirtualThread(VirtualThreads.isVirtual(Thread.currentThread()));
+      if (this.traceContextProvider != null) {
+        HttpHeaders requestHeaders = event.getRequestHeaders();
+        event.setTraceId(this.traceContextProvider.getTraceId(requestHeaders));
+        event.setSpanId(this.traceContextProvider.getSpanId(requestHeaders));
+      }
+    }
+  }
+
+  static void recordFailure(RestEvent event, Throwable exception) {
+    event.setExceptionType(exception.getClass());
+    event.setFailurePhase(getFailurePhase(exception));
+    if (exception instanceof RestClientResponseException) {
+      event.setStatusCode(((RestClientResponseException) exception).getStatusCode().value());
+    }
+  }
+
+  static String getFailurePhase(Throwable exception) {
+    if (exception instanceof RestClientResponseException) {
+      return PHASE_STATUS;
+    }
+    if (exception instanceof HttpMessageConversionException || exception instanceof UnknownContentTypeException) {
+      return PHASE_CONVERSION;
+    }
+    if (exception instanceof ResourceAccessException) {
+      return getIoFailurePhase(exception.getCause());
+    }
+    if (exception.getCause() instanceof HttpMessageConversionException) {
+      // RestTemplate wraps conversion failures while extracting the response
+      return PHASE_CONVERSION;
+    }
+    return PHASE_OTHER;
+  }
+
+  /**
+   * Classifies an I/O failure by the types in the cause chain, messages are
+   * neither stable nor locale independent.
+   * <p>
+   * {@link java.net.HttpURLConnection} reports connect timeouts with the same
+   * exception type as read timeouts, they are classified as timeouts.
+   */
+  private static String getIoFailurePhase(Throwable exception) {
+    Throwable cause = exception;
+    // bound the depth in case of a cycle
+    for (int i = 0; cause != null && i < 16; i++) {
+      if (cause instanceof HttpConnectTimeoutException
+          || cause instanceof ConnectException
+          || cause instanceof NoRouteToHostException
+          || cause instanceof UnknownHostException) {
+        return PHASE_CONNECT;
+      }
+      if (cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException) {
+        return PHASE_TIMEOUT;
+      }
+      cause = cause.getCause();
+    }
+    return PHASE_IO;
+  }
+
+  private static void setRequest(RestEvent event, Object request) {
+    Object body;
+    if (request instanceof HttpEntity) {
+      body = ((HttpEntity<?>) request).getBody();
+    } else {
+      body = request;
+    }
+    if (body != null) {
+      event.setRequestType(body.getClass());
+    }
+    event.setRequestObjectCount(getObjectCount(body));
+  }
+
   static int getObjectCount(HttpEntity<?> entity) {
     if (entity.hasBody()) {
       Object body = entity.getBody();
@@ -841,6 +1128,82 @@ public final class JfrRestOperations implements RestOperations {
     @Description("The number of objects returned")
     private int objectCount;
 
+    @Label("Status Code")
+    @Description("The HTTP status code of the response, 0 if none was received")
+    private int statusCode;
+
+    @Label("Exception Type")
+    @Description("The type of the exception thrown, if any")
+    private Class<?> exceptionType;
+
+    @Label("Failure Phase")
+    @Description("The phase in which the operation failed: connect, read timeout, io, status, conversion or other")
+    private String failurePhase;
+
+    @Label("Time to First Byte")
+    @Description("The time from sending the request until the response headers were received")
+    @Timespan
+    private long timeToFirstByte;
+
+    @Label("Response Size")
+    @Description("The number of bytes of the response body read")
+    @DataAmount
+    private long responseSize;
+
+    @Label("Throughput")
+    @Description("The throughput while reading the response body")
+    @DataAmount
+    @Frequency
+    private long throughput;
+
+    @Label("Remote Address")
+    @Description("The address the request was sent to, only available with LatencyAwareClientHttpRequestFactory")
+    private String remoteAddress;
+
+    @Label("Request Factory")
+    @Description("The ClientHttpRequestFactory used, only available with JfrClientHttpRequestFactory")
+    private Class<?> requestFactory;
+
+    @Label("Virtual Thread")
+    @Description("Whether the operation was performed on a virtual thread")
+    private boolean virtualThread;
+
+    @Label("Trace ID")
+    @Description("The id of the trace the operation is part of")
+    private String traceId;
+
+    @Label("Span ID")
+    @Description("The id of the span of the operation")
+    private String spanId;
+
+    /**
+     * The headers of the request sent, only available when
+     * {@link JfrClientHttpRequestFactory} is used, not recorded.
+     */
+    private transient HttpHeaders requestHeaders;
+
+    @Label("Request Type")
+    @Description("The type of the request body")
+    private Class<?> requestType;
+
+    @Label("Request Object Count")
+    @Description("The number of objects sent")
+    private int requestObjectCount;
+
+    @Label("Request Size")
+    @Description("The size of the serialized request body")
+    @DataAmount
+    private long requestSize;
+
+    @Label("Serialization Time")
+    @Description("The time spent serializing and writing the request body")
+    @Timespan
+    private long serializationTime;
+
+    @Label("Warm-up")
+    @Description("Whether the operation was performed by RestWarmup, not included in error rates and adaptive timeouts")
+    private boolean warmup;
+
     String getOperationName() {
       return this.operationName;
     }
@@ -881,6 +1244,142 @@ public final class JfrRestOperations implements RestOperations {
       this.objectCount = objectCount;
     }
 
+    int getStatusCode() {
+      return this.statusCode;
+    }
+
+    void setStatusCode(int statusCode) {
+      this.statusCode = statusCode;
+    }
+
+    Class<?> getExceptionType() {
+      return this.exceptionType;
+    }
+
+    void setExceptionType(Class<?> exceptionType) {
+      this.exceptionType = exceptionType;
+    }
+
+    String getFailurePhase() {
+      return this.failurePhase;
+    }
+
+    void setFailurePhase(String failurePhase) {
+      this.failurePhase = failurePhase;
+    }
+
+    long getTimeToFirstByte() {
+      return this.timeToFirstByte;
+    }
+
+    void setTimeToFirstByte(long timeToFirstByte) {
+      this.timeToFirstByte = timeToFirstByte;
+    }
+
+    long getResponseSize() {
+      return this.responseSize;
+    }
+
+    void setResponseSize(long responseSize) {
+      this.responseSize = responseSize;
+    }
+
+    long getThroughput() {
+      return this.throughput;
+    }
+
+    void setThroughput(long throughput) {
+      this.throughput = throughput;
+    }
+
+    String getRemoteAddress() {
+      return this.remoteAddress;
+    }
+
+    void setRemoteAddress(String remoteAddress) {
+      this.remoteAddress = remoteAddress;
+    }
+
+    Class<?> getRequestFactory() {
+      return this.requestFactory;
+    }
+
+    void setRequestFactory(Class<?> requestFactory) {
+      this.requestFactory = requestFactory;
+    }
+
+    boolean isVirtualThread() {
+      return this.virtualThread;
+    }
+
+    void setVirtualThread(boolean virtualThread) {
+      this.virtualThread = virtualThread;
+    }
+
+    String getTraceId() {
+      return this.traceId;
+    }
+
+    void setTraceId(String traceId) {
+      this.traceId = traceId;
+    }
+
+    String getSpanId() {
+      return this.spanId;
+    }
+
+    void setSpanId(String spanId) {
+      this.spanId = spanId;
+    }
+
+    HttpHeaders getRequestHeaders() {
+      return this.requestHeaders;
+    }
+
+    void setRequestHeaders(HttpHeaders requestHeaders) {
+      this.requestHeaders = requestHeaders;
+    }
+
+    Class<?> getRequestType() {
+      return this.requestType;
+    }
+
+    void setRequestType(Class<?> requestType) {
+      this.requestType = requestType;
+    }
+
+    int getRequestObjectCount() {
+      return this.requestObjectCount;
+    }
+
+    void setRequestObjectCount(int requestObjectCount) {
+      this.requestObjectCount = requestObjectCount;
+    }
+
+    long getRequestSize() {
+      return this.requestSize;
+    }
+
+    void setRequestSize(long requestSize) {
+      this.requestSize = requestSize;
+    }
+
+    long getSerializationTime() {
+      return this.serializationTime;
+    }
+
+    void setSerializationTime(long serializationTime) {
+      this.serializationTime = serializationTime;
+    }
+
+    boolean isWarmup() {
+      return this.warmup;
+    }
+
+    void setWarmup(boolean warmup) {
+      this.warmup = warmup;
+    }
+
   }
 
 }
@@ -0,0 +1,44 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+/**
+ * Wraps a {@link ClientHttpRequest} that supports streaming so that message
+ * converters keep writing directly to the connection.
+ */
+final class JfrStreamingClientHttpRequest extends JfrClientHttpRequest implements StreamingHttpOutputMessage {
+
+  JfrStreamingClientHttpRequest(ClientHttpRequest delegate, RestEvent event) {
+    super(delegate, event);
+  }
+
+  @Override
+  public void setBody(Body body) {
+    ((StreamingHttpOutputMessage) this.delegate).setBody(new Body() {
+
+      @Override
+      public void writeTo(OutputStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        try {
+          body.writeTo(countingStream);
+        } finally {
+          recordRequestBody(countingStream.getCount(), System.nanoTime() - start);
+        }
+      }
+
+      @Override
+      public boolean repeatable() {
+        return body.repeatable();
+      }
+
+    });
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.github.marschall.jfr.resttemplate.LatencyAwareClientHttpRequestFactory.ResolvedHost;
+
+/**
+ * Wraps a {@link ClientHttpRequest} sent to a specific address and updates
+ * the statistics of the address.
+ */
+class LatencyAwareClientHttpRequest implements ClientHttpRequest {
+
+  final ClientHttpRequest delegate;
+
+  private final URI uri;
+
+  private final AddressStatistics statistics;
+
+  private final LatencyAwareClientHttpRequestFactory requestFactory;
+
+  private final ResolvedHost resolvedHost;
+
+  LatencyAwareClientHttpRequest(ClientHttpRequest delegate, URI uri, AddressStatistics statistics,
+          LatencyAwareClientHttpRequestFactory requestFactory, ResolvedHost resolvedHost) {
+    this.delegate = delegate;
+    this.uri = uri;
+    this.statistics = statistics;
+    this.requestFactory = requestFactory;
+    this.resolvedHost = resolvedHost;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return this.delegate.getMethod();
+  }
+
+  @Override
+  public URI getURI() {
+    return this.uri;
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return this.delegate.getAttributes();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public OutputStream getBody() throws IOException {
+    return this.delegate.getBody();
+  }
+
+  @Override
+  public ClientHttpResponse execute() throws IOException {
+    this.statistics.begin();
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ClientHttpResponse response = this.delegate.execute();
+      error = response.getStatusCode().is5xxServerError();
+      return response;
+    } finally {
+      this.statistics.end(System.nanoTime() - start, error);
+      this.requestFactory.completed(this.resolvedHost, this.statistics);
+    }
+  }
+
+  /**
+   * Keeps streaming requests streaming.
+   */
+  static final class Streaming extends LatencyAwareClientHttpRequest implements StreamingHttpOutputMessage {
+
+    Streaming(ClientHttpRequest delegate, URI uri, AddressStatistics statistics,
+            LatencyAwareClientHttpRequestFactory requestFactory, ResolvedHost resolvedHost) {
+      super(delegate, uri, statistics, requestFactory, resolvedHost);
+    }
+
+    @Override
+    public void setBody(Body body) {
+      ((StreamingHttpOutputMessage) this.delegate).setBody(body);
+    }
+
+  }
+
+}
@@ -0,0 +1,493 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.AbstractClientHttpRequestFactoryWrapper;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A {@link ClientHttpRequestFactory} that resolves all addresses of a host
+ * and sends each request to the address with the lowest expected latency.
+ * Addresses not used for longer than {@link #setResolutionInterval(Duration)}
+ * are probed again.
+ * <p>
+ * For every address an exponentially weighted moving average of the latency
+ * and the error rate is kept. Addresses with an error rate above
+ * {@link #setMaxErrorRate(double)} or a latency more than
+ * {@link #setLatencyOutlierFactor(double)} times the latency of the fastest
+ * address are ejected for {@link #setEjectionTime(Duration)}. Addresses that
+ * are no longer returned when the host is resolved again are evicted. Both
+ * generate a JFR event. When used together with {@link JfrRestOperations} the
+ * address chosen is recorded in the operation event.
+ * <p>
+ * Only {@code http} URIs are routed, the host of the URI is replaced with the
+ * address and the original authority is sent as {@code Host} header. Not all
+ * request factories send the {@code Host} header: the ones based on the JDK
+ * {@link java.net.http.HttpClient} are rejected as are the
+ * {@link java.net.HttpURLConnection} based ones unless the
+ * {@code sun.net.http.allowRestrictedHeaders} system property is set.
+ * {@code https} URIs are not routed as host name verification would fail.
+ * <p>
+ * An address that has not been used yet or not for longer than the
+ * resolution interval is probed with a single request, until the probe
+ * completes it is assumed to be as fast as the fastest known address.
+ */
+public final class LatencyAwareClientHttpRequestFactory extends AbstractClientHttpRequestFactoryWrapper {
+
+  /**
+   * The minimum number of requests before an address can be ejected.
+   */
+  static final int MIN_REQUESTS = 5;
+
+  private final Resolver resolver;
+
+  private final Map<String, ResolvedHost> hosts;
+
+  private volatile long resolutionInterval;
+
+  private volatile long ejectionTime;
+
+  private volatile double maxErrorRate;
+
+  private volatile double latencyOutlierFactor;
+
+  /**
+   * Constructs a new {@link LatencyAwareClientHttpRequestFactory}.
+   *
+   * @param requestFactory the actual {@link ClientHttpRequestFactory} implementation, not {@code null}
+   * @throws IllegalArgumentException if the request factory does not send the {@code Host} header
+   */
+  public LatencyAwareClientHttpRequestFactory(ClientHttpRequestFactory requestFactory) {
+    this(requestFactory, InetAddress::getAllByName);
+  }
+
+  LatencyAwareClientHttpRequestFactory(ClientHttpRequestFactory requestFactory, Resolver resolver) {
+    super(requestFactory);
+    Objects.requireNonNull(resolver, "resolver");
+    if (!canSendHost(requestFactory)) {
+      throw new IllegalArgumentException(requestFactory.getClass().getName() + " does not send the Host header");
+    }
+    this.resolver = resolver;
+    this.hosts = new ConcurrentHashMap<>();
+    this.resolutionInterval = Duration.ofSeconds(30L).toNanos();
+    this.ejectionTime = Duration.ofSeconds(30L).toNanos();
+    this.maxErrorRate = 0.5d;
+    this.latencyOutlierFactor = 5.0d;
+  }
+
+  /**
+   * Sets the interval after which hosts are resolved again, default 30 seconds.
+   *
+   * @param resolutionInterval the resolution interval, not {@code null}
+   */
+  public void setResolutionInterval(Duration resolutionInterval) {
+    this.resolutionInterval = resolutionInterval.toNanos();
+  }
+
+  /**
+   * Sets for how long outliers are ejected, default 30 seconds.
+   *
+   * @param ejectionTime the ejection time, not {@code null}
+   */
+  public void setEjectionTime(Duration ejectionTime) {
+    this.ejectionTime = ejectionTime.toNanos();
+  }
+
+  /**
+   * Sets the error rate above which an address is ejected, default 0.5.
+   *
+   * @param maxErrorRate the maximum error rate, between 0 and 1
+   */
+  public void setMaxErrorRate(double maxErrorRate) {
+    this.maxErrorRate = maxErrorRate;
+  }
+
+  /**
+   * Sets by how many times the latency of an address has to exceed the
+   * latency of the fastest address for it to be ejected, default 5.
+   *
+   * @param latencyOutlierFactor the latency outlier factor
+   */
+  public void setLatencyOutlierFactor(double latencyOutlierFactor) {
+    this.latencyOutlierFactor = latencyOutlierFactor;
+  }
+
+  /**
+   * Whether requests of a factory send a {@code Host} header that differs
+   * from the host of the URI. Only the factory itself is checked, not the
+   * factories it wraps.
+   */
+  static boolean canSendHost(ClientHttpRequestFactory requestFactory) {
+    if (requestFactory instanceof JdkClientHttpRequestFactory
+            || requestFactory instanceof JfrHttp2ClientHttpRequestFactory) {
+      // dropped by Spring and the JDK HttpClient
+      return false;
+    }
+    if (requestFactory instanceof SimpleClientHttpRequestFactory) {
+      // dropped by HttpURLConnection unless restricted headers are allowed
+      return Boolean.getBoolean("sun.net.http.allowRestrictedHeaders");
+    }
+    return true;
+  }
+
+  @Override
+  protected ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod, ClientHttpRequestFactory requestFactory) throws IOException {
+    if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+      return requestFactory.createRequest(uri, httpMethod);
+    }
+    String host = uri.getHost();
+    ResolvedHost resolvedHost = this.hosts.computeIfAbsent(host, ResolvedHost::new);
+    AddressStatistics statistics = this.choose(resolvedHost);
+
+    String address = statistics.getAddress().getHostAddress();
+    URI addressUri = UriComponentsBuilder.fromUri(uri)
+            .host(address.indexOf(':') != -1 ? '[' + address + ']' : address)
+            .build(true)
+            .toUri();
+    ClientHttpRequest request = requestFactory.createRequest(addressUri, httpMethod);
+    request.getHeaders().set(HttpHeaders.HOST, uri.getRawAuthority());
+
+    RestEvent event = JfrRestOperations.CURRENT_EVENT.get();
+    if (event != null) {
+      event.setRemoteAddress(address);
+    }
+    if (request instanceof StreamingHttpOutputMessage) {
+      return new LatencyAwareClientHttpRequest.Streaming(request, uri, statistics, this, resolvedHost);
+    }
+    return new LatencyAwareClientHttpRequest(request, uri, statistics, this, resolvedHost);
+  }
+
+  private AddressStatistics choose(ResolvedHost resolvedHost) throws UnknownHostException {
+    long now = System.nanoTime();
+    List<AddressStatistics> addresses = resolvedHost.getAddresses(now);
+    // if every address is ejected we still have to send the request somewhere
+    boolean allEjected = true;
+    for (AddressStatistics statistics : addresses) {
+      if (!statistics.isEjected(now)) {
+        allEjected = false;
+        break;
+      }
+    }
+    double bestKnownLatency = Double.MAX_VALUE;
+    for (AddressStatistics statistics : addresses) {
+      if (allEjected || !statistics.isEjected(now)) {
+        if (statistics.tryProbe(now, this.resolutionInterval)) {
+          return statistics;
+        }
+        if (statistics.getRequests() > 0L) {
+          bestKnownLatency = Math.min(bestKnownLatency, statistics.getLatency());
+        }
+      }
+    }
+    if (bestKnownLatency == Double.MAX_VALUE) {
+      // only probes in flight, fall back to the number of requests in flight
+      bestKnownLatency = 1.0d;
+    }
+    AddressStatistics best = null;
+    double bestLatency = Double.MAX_VALUE;
+    for (AddressStatistics statistics : addresses) {
+      if (allEjected || !statistics.isEjected(now)) {
+        double expectedLatency = statistics.getExpectedLatency(bestKnownLatency);
+        if (expectedLatency < bestLatency) {
+          best = statistics;
+          bestLatency = expectedLatency;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Called after a request to an address completed, ejects the address if
+   * it is an outlier.
+   */
+  void completed(ResolvedHost resolvedHost, AddressStatistics statistics) {
+    if (statistics.getRequests() < MIN_REQUESTS) {
+      return;
+    }
+    long now = System.nanoTime();
+    double errorRate = statistics.getErrorRate();
+    double latency = statistics.getLatency();
+    String reason = null;
+    if (errorRate > this.maxErrorRate) {
+      reason = "error rate";
+    } else {
+      double fastest = Double.MAX_VALUE;
+      for (AddressStatistics other : resolvedHost.addresses) {
+        if (other != statistics && other.getRequests() >= MIN_REQUESTS && !other.isEjected(now)) {
+          fastest = Math.min(fastest, other.getLatency());
+        }
+      }
+      if (fastest != Double.MAX_VALUE && latency > fastest * this.latencyOutlierFactor) {
+        reason = "latency";
+      }
+    }
+    if (reason != null && !statistics.isEjected(now)) {
+      long ejectionTime = this.ejectionTime;
+      statistics.eject(now + ejectionTime);
+      EjectionEvent event = new EjectionEvent();
+      if (event.isEnabled()) {
+        event.setHost(resolvedHost.host);
+        event.setAddress(statistics.getAddress().getHostAddress());
+        event.setReason(reason);
+        event.setLatency((long) latency);
+        event.setErrorRate(errorRate);
+        event.setEjectionTime(ejectionTime);
+        event.commit();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface Resolver {
+
+    InetAddress[] resolve(String host) throws UnknownHostException;
+
+  }
+
+  final class ResolvedHost {
+
+    final String host;
+
+    private volatile List<AddressStatistics> addresses;
+
+    private volatile long resolvedAt;
+
+    ResolvedHost(String host) {
+      this.host = host;
+      this.addresses = List.of();
+    }
+
+    List<AddressStatistics> getAddresses(long now) throws UnknownHostException {
+      List<AddressStatistics> current = this.addresses;
+      if (current.isEmpty() || now - this.resolvedAt > resolutionInterval) {
+        synchronized (this) {
+          current = this.addresses;
+          if (current.isEmpty() || now - this.resolvedAt > resolutionInterval) {
+            try {
+              current = this.resolve(current);
+            } catch (UnknownHostException e) {
+              if (current.isEmpty()) {
+                throw e;
+              }
+              // keep the addresses that worked until the next resolution
+            }
+            this.addresses = current;
+            this.resolvedAt = now;
+          }
+        }
+      }
+      return current;
+    }
+
+    private List<AddressStatistics> resolve(List<AddressStatistics> previous) throws UnknownHostException {
+      InetAddress[] resolved = resolver.resolve(this.host);
+      List<AddressStatistics> addresses = new ArrayList<>(resolved.length);
+      for (InetAddress address : resolved) {
+        AddressStatistics statistics = null;
+        for (AddressStatistics each : previous) {
+          if (each.getAddress().equals(address)) {
+            statistics = each;
+            break;
+          }
+        }
+        addresses.add(statistics != null ? statistics : new AddressStatistics(address));
+      }
+      for (AddressStatistics each : previous) {
+        if (!addresses.contains(each)) {
+          EvictionEvent event = new EvictionEvent();
+          if (event.isEnabled()) {
+            event.setHost(this.host);
+            event.setAddress(each.getAddress().getHostAddress());
+            event.setRequests(each.getRequests());
+            event.setLatency((long) each.getLatency());
+            event.setErrorRate(each.getErrorRate());
+            event.commit();
+          }
+        }
+      }
+      return List.copyOf(addresses);
+    }
+
+  }
+
+  @Label("Outlier Ejection")
+  @Description("An address was temporarily ejected from load balancing")
+  @Category("Spring REST")
+  @StackTrace(false)
+  static class EjectionEvent extends Event {
+
+    @Label("Host")
+    @Description("The host name")
+    private String host;
+
+    @Label("Address")
+    @Description("The address ejected")
+    private String address;
+
+    @Label("Reason")
+    @Description("Why the address was ejected: error rate or latency")
+    private String reason;
+
+    @Label("Latency")
+    @Description("The moving average of the latency of the address")
+    @Timespan
+    private long latency;
+
+    @Label("Error Rate")
+    @Description("The moving average of the error rate of the address")
+    @Percentage
+    private double errorRate;
+
+    @Label("Ejection Time")
+    @Description("For how long the address is ejected")
+    @Timespan
+    private long ejectionTime;
+
+    String getHost() {
+      return this.host;
+    }
+
+    void setHost(String host) {
+      this.host = host;
+    }
+
+    String getAddress() {
+      return this.address;
+    }
+
+    void setAddress(String address) {
+      this.address = address;
+    }
+
+    String getReason() {
+      return this.reason;
+    }
+
+    void setReason(String reason) {
+      this.reason = reason;
+    }
+
+    long getLatency() {
+      return this.latency;
+    }
+
+    void setLatency(long latency) {
+      this.latency = latency;
+    }
+
+    double getErrorRate() {
+      return this.errorRate;
+    }
+
+    void setErrorRate(double errorRate) {
+      this.errorRate = errorRate;
+    }
+
+    long getEjectionTime() {
+      return this.ejectionTime;
+    }
+
+    void setEjectionTime(long ejectionTime) {
+      this.ejectionTime = ejectionTime;
+    }
+
+  }
+
+  @Label("Address Eviction")
+  @Description("An address is no longer returned when resolving a host")
+  @Category("Spring REST")
+  @StackTrace(false)
+  static class EvictionEvent extends Event {
+
+    @Label("Host")
+    @Description("The host name")
+    private String host;
+
+    @Label("Address")
+    @Description("The address evicted")
+    private String address;
+
+    @Label("Requests")
+    @Description("The number of requests sent to the address")
+    private long requests;
+
+    @Label("Latency")
+    @Description("The moving average of the latency of the address")
+    @Timespan
+    private long latency;
+
+    @Label("Error Rate")
+    @Description("The moving average of the error rate of the address")
+    @Percentage
+    private double errorRate;
+
+    String getHost() {
+      return this.host;
+    }
+
+    void setHost(String host) {
+      this.host = host;
+    }
+
+    String getAddress() {
+      return this.address;
+    }
+
+    void setAddress(String address) {
+      this.address = address;
+    }
+
+    long getRequests() {
+      return this.requests;
+    }
+
+    void setRequests(long requests) {
+      this.requests = requests;
+    }
+
+    long getLatency() {
+      return this.latency;
+    }
+
+    void setLatency(long latency) {
+      this.latency = latency;
+    }
+
+    double getErrorRate() {
+      return this.errorRate;
+    }
+
+    void setErrorRate(double errorRate) {
+      this.errorRate = errorRate;
+    }
+
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Wraps a {@link ClientHttpRequest} and buffers the body in a
+ * {@link PooledOutputStream} until the request is executed. The
+ * {@code Content-Length} header is always set to the size of the buffered
+ * body.
+ * <p>
+ * Deliberately does not implement {@link StreamingHttpOutputMessage} so that
+ * message converters write to {@link #getBody()}.
+ */
+final class PooledBufferingClientHttpRequest implements ClientHttpRequest {
+
+  private final ClientHttpRequest delegate;
+
+  private final BufferPool pool;
+
+  private PooledOutputStream body;
+
+  PooledBufferingClientHttpRequest(ClientHttpRequest delegate, BufferPool pool) {
+    this.delegate = delegate;
+    this.pool = pool;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return this.delegate.getMethod();
+  }
+
+  @Override
+  public URI getURI() {
+    return this.delegate.getURI();
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return this.delegate.getAttributes();
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return this.delegate.getHeaders();
+  }
+
+  @Override
+  public OutputStream getBody() {
+    if (this.body == null) {
+      this.body = new PooledOutputStream(this.pool);
+    }
+    return this.body;
+  }
+
+  @Override
+  public ClientHttpResponse execute() throws IOException {
+    PooledOutputStream body = this.body;
+    if (body == null) {
+      return this.delegate.execute();
+    }
+    this.body = null;
+    // a length set by the caller that differs from the body would corrupt the request
+    this.delegate.getHeaders().setContentLength(body.size());
+    if (this.delegate instanceof StreamingHttpOutputMessage) {
+      PooledBody pooledBody = new PooledBody(body);
+      ((StreamingHttpOutputMessage) this.delegate).setBody(pooledBody);
+      try {
+        return this.delegate.execute();
+      } finally {
+        // the body may still be written on another thread, eg. with the JDK HttpClient
+        pooledBody.releaseIfNotWriting();
+      }
+    }
+    try {
+      body.writeTo(this.delegate.getBody());
+      return this.delegate.execute();
+    } finally {
+      // the response does not reference the request body
+      body.release();
+    }
+  }
+
+  /**
+   * Writes the segments at most once and releases them once written, or
+   * when the request completes before writing started.
+   */
+  static final class PooledBody implements StreamingHttpOutputMessage.Body {
+
+    private static final int IDLE = 0;
+
+    private static final int WRITING = 1;
+
+    private static final int RELEASED = 2;
+
+    private final PooledOutputStream body;
+
+    private final AtomicInteger state;
+
+    PooledBody(PooledOutputStream body) {
+      this.body = body;
+      this.state = new AtomicInteger(IDLE);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+      if (!this.state.compareAndSet(IDLE, WRITING)) {
+        throw new IllegalStateException("body already written or released");
+      }
+      try {
+        this.body.writeTo(outputStream);
+      } finally {
+        this.state.set(RELEASED);
+        this.body.release();
+      }
+    }
+
+    @Override
+    public boolean repeatable() {
+      // the segments are returned to the pool after the first write
+      return false;
+    }
+
+    void releaseIfNotWriting() {
+      if (this.state.compareAndSet(IDLE, RELEASED)) {
+        this.body.release();
+      }
+    }
+
+  }
+
+}
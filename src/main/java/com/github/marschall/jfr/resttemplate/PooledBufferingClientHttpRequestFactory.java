@@ -0,0 +1,61 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Objects;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AbstractClientHttpRequestFactoryWrapper;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+/**
+ * A {@link ClientHttpRequestFactory} that buffers request bodies in segments
+ * of a {@link BufferPool} rather than in a freshly allocated array per
+ * request.
+ * <p>
+ * Unlike {@link org.springframework.http.client.BufferingClientHttpRequestFactory}
+ * the segments are not consolidated into a single array, they are written
+ * directly to the actual request, through
+ * {@link org.springframework.http.StreamingHttpOutputMessage} if supported.
+ * The {@code Content-Length} header is always set to the size of the buffered
+ * body, allowing request factories to stream with a fixed length. Once the
+ * body has been written, or the request completed without writing it, the
+ * segments are returned to the pool. As a consequence the body can only be
+ * written once.
+ * <p>
+ * The pool generates periodic "Buffer Pool" events, share one pool between
+ * request factories to bound the memory retained.
+ */
+public final class PooledBufferingClientHttpRequestFactory extends AbstractClientHttpRequestFactoryWrapper {
+
+  private final BufferPool pool;
+
+  /**
+   * Constructs a new {@link PooledBufferingClientHttpRequestFactory} with a
+   * default {@link BufferPool}.
+   *
+   * @param requestFactory the actual {@link ClientHttpRequestFactory} implementation, not {@code null}
+   */
+  public PooledBufferingClientHttpRequestFactory(ClientHttpRequestFactory requestFactory) {
+    this(requestFactory, new BufferPool());
+  }
+
+  /**
+   * Constructs a new {@link PooledBufferingClientHttpRequestFactory}.
+   *
+   * @param requestFactory the actual {@link ClientHttpRequestFactory} implementation, not {@code null}
+   * @param pool the pool to buffer request bodies in, not {@code null}
+   */
+  public PooledBufferingClientHttpRequestFactory(ClientHttpRequestFactory requestFactory, BufferPool pool) {
+    super(requestFactory);
+    Objects.requireNonNull(pool, "pool");
+    this.pool = pool;
+  }
+
+  @Override
+  protected ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod, ClientHttpRequestFactory requestFactory) throws IOException {
+    return new PooledBufferingClientHttpRequest(requestFactory.createRequest(uri, httpMethod), this.pool);
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Cleaner.Cleanable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link OutputStream} that buffers into segments of a {@link BufferPool}.
+ * <p>
+ * The segments are never copied into a single array, {@link #writeTo(OutputStream)}
+ * writes them out directly.
+ * <p>
+ * The segments are returned to the pool by {@link #release()} or, if the
+ * stream is abandoned, eg. because serializing the body failed, once the
+ * stream is no longer reachable.
+ */
+final class PooledOutputStream extends OutputStream {
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final Segments segments;
+
+  private Cleanable cleanable;
+
+  private byte[] current;
+
+  private int position;
+
+  private long size;
+
+  PooledOutputStream(BufferPool pool) {
+    this.segments = new Segments(pool);
+  }
+
+  long size() {
+    return this.size;
+  }
+
+  @Override
+  public void write(int b) {
+    if (this.current == null || this.position == this.current.length) {
+      this.nextSegment();
+    }
+    this.current[this.position] = (byte) b;
+    this.position += 1;
+    this.size += 1L;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    while (len > 0) {
+      if (this.current == null || this.position == this.current.length) {
+        this.nextSegment();
+      }
+      int length = Math.min(len, this.current.length - this.position);
+      System.arraycopy(b, off, this.current, this.position, length);
+      this.position += length;
+      this.size += length;
+      off += length;
+      len -= length;
+    }
+  }
+
+  private void nextSegment() {
+    if (this.cleanable == null) {
+      // only bodies that acquire segments pay for the registration
+      this.cleanable = CLEANER.register(this, this.segments);
+    }
+    this.current = this.segments.pool.acquire(this.size);
+    this.segments.list.add(this.current);
+    this.position = 0;
+  }
+
+  /**
+   * Writes the buffered bytes to the given stream.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  void writeTo(OutputStream out) throws IOException {
+    List<byte[]> list = this.segments.list;
+    int last = list.size() - 1;
+    for (int i = 0; i < last; i++) {
+      byte[] segment = list.get(i);
+      out.write(segment, 0, segment.length);
+    }
+    if (last >= 0) {
+      out.write(this.current, 0, this.position);
+    }
+  }
+
+  /**
+   * Returns all segments to the pool, the stream must no longer be used.
+   */
+  void release() {
+    if (this.cleanable != null) {
+      // runs at most once
+      this.cleanable.clean();
+      this.cleanable = null;
+    }
+    this.current = null;
+    this.position = 0;
+    this.size = 0L;
+  }
+
+  /**
+   * The segments of a stream, must not reference the stream so that it can
+   * become unreachable.
+   */
+  static final class Segments implements Runnable {
+
+    final BufferPool pool;
+
+    final List<byte[]> list;
+
+    Segments(BufferPool pool) {
+      this.pool = pool;
+      this.list = new ArrayList<>(4);
+    }
+
+    @Override
+    public void run() {
+      for (byte[] segment : this.list) {
+        this.pool.release(segment);
+      }
+      this.list.clear();
+    }
+
+  }
+
+}
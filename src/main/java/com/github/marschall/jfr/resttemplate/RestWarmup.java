@@ -0,0 +1,253 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestOperations;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Warms up a {@link RestOperations} at application start so that the first
+ * requests after a deploy do not suffer from cold connection pools, TLS
+ * handshakes and class loading of message converters.
+ * <p>
+ * For every endpoint added with {@link #addEndpoint(URI, Class)} first
+ * {@link #setConnections(int)} concurrent GET requests are sent to fill the
+ * connection pool, then {@link #setIterations(int)} sequential GET requests
+ * are sent to exercise the message converters for the response type. Failed
+ * requests are counted but do not fail the warm-up.
+ * <p>
+ * The default number of iterations is too low to get the code paths compiled,
+ * HotSpot compiles a method with C1 after about 200 and with C2 after about
+ * 5000 invocations and many methods are called only once per request.
+ * <p>
+ * Operations performed during warm-up by {@link JfrRestOperations} or
+ * observed by {@link JfrObservationHandler} have the "Warm-up" field of their
+ * operation event set and are not counted towards error rates and adaptive
+ * timeouts. The warm-up as a whole generates a "Warm-up" event.
+ * <p>
+ * When registered as a Spring bean the warm-up runs once all singletons are
+ * instantiated, otherwise call {@link #run()}.
+ */
+public final class RestWarmup implements SmartInitializingSingleton {
+
+  private static final ThreadLocal<Boolean> WARMING_UP = new ThreadLocal<>();
+
+  /**
+   * The number of threads currently warming up, allows to skip the thread
+   * local lookup in the common case.
+   */
+  private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+  private final RestOperations restOperations;
+
+  private final List<Endpoint> endpoints;
+
+  private int connections;
+
+  private int iterations;
+
+  /**
+   * Constructs a new {@link RestWarmup}.
+   *
+   * @param restOperations the {@link RestOperations} to warm up, usually a
+   *                       {@link JfrRestOperations}, not {@code null}
+   */
+  public RestWarmup(RestOperations restOperations) {
+    Objects.requireNonNull(restOperations, "restOperations");
+    this.restOperations = restOperations;
+    this.endpoints = new ArrayList<>();
+    this.connections = 1;
+    this.iterations = 100;
+  }
+
+  /**
+   * Adds an endpoint that is warmed up with GET requests.
+   *
+   * @param uri the URI of the endpoint, should be safe to call repeatedly, not {@code null}
+   * @param responseType the type to convert the response to, not {@code null}
+   */
+  public void addEndpoint(URI uri, Class<?> responseType) {
+    Objects.requireNonNull(uri, "uri");
+    Objects.requireNonNull(responseType, "responseType");
+    this.endpoints.add(new Endpoint(uri, responseType));
+  }
+
+  /**
+   * Sets the number of connections to open to each endpoint, default 1.
+   *
+   * @param connections the number of concurrent requests to send to each endpoint
+   */
+  public void setConnections(int connections) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("connections must be positive");
+    }
+    this.connections = connections;
+  }
+
+  /**
+   * Sets the number of requests to send to each endpoint after the
+   * connections have been opened, default 100. Use several thousand to get
+   * the code paths compiled.
+   *
+   * @param iterations the number of requests
+   */
+  public void setIterations(int iterations) {
+    if (iterations < 0) {
+      throw new IllegalArgumentException("iterations must not be negative");
+    }
+    this.iterations = iterations;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    this.run();
+  }
+
+  /**
+   * Performs the warm-up, blocks until it is done.
+   */
+  public void run() {
+    WarmupEvent event = new WarmupEvent();
+    event.begin();
+    int requests = 0;
+    int failures = 0;
+    ExecutorService executor = this.connections > 1 ? Executors.newFixedThreadPool(this.connections) : null;
+    try {
+      for (Endpoint endpoint : this.endpoints) {
+        if (executor != null) {
+          List<Future<Boolean>> futures = new ArrayList<>(this.connections);
+          for (int i = 0; i < this.connections; i++) {
+            futures.add(executor.submit(() -> this.request(endpoint)));
+          }
+          for (Future<Boolean> future : futures) {
+            requests += 1;
+            if (!await(future)) {
+              failures += 1;
+            }
+          }
+        }
+        for (int i = 0; i < this.iterations; i++) {
+          requests += 1;
+          if (!this.request(endpoint)) {
+            failures += 1;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      event.end();
+      event.setEndpoints(this.endpoints.size());
+      event.setRequests(requests);
+      event.setFailures(failures);
+      event.commit();
+    }
+  }
+
+  private boolean request(Endpoint endpoint) {
+    ACTIVE.incrementAndGet();
+    WARMING_UP.set(Boolean.TRUE);
+    try {
+      this.restOperations.getForObject(endpoint.uri, endpoint.responseType);
+      return true;
+    } catch (RestClientException e) {
+      return false;
+    } finally {
+      WARMING_UP.remove();
+      ACTIVE.decrementAndGet();
+    }
+  }
+
+  private static boolean await(Future<Boolean> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Whether the current thread is performing a warm-up.
+   *
+   * @return whether the current thread is performing a warm-up
+   */
+  static boolean isWarmingUp() {
+    return ACTIVE.get() > 0 && WARMING_UP.get() != null;
+  }
+
+  static final class Endpoint {
+
+    final URI uri;
+
+    final Class<?> responseType;
+
+    Endpoint(URI uri, Class<?> responseType) {
+      this.uri = uri;
+      this.responseType = responseType;
+    }
+
+  }
+
+  @Label("Warm-up")
+  @Description("The warm-up of REST operations")
+  @Category("Spring REST")
+  @StackTrace(false)
+  static class WarmupEvent extends Event {
+
+    @Label("Endpoints")
+    @Description("The number of endpoints warmed up")
+    private int endpoints;
+
+    @Label("Requests")
+    @Description("The number of requests sent")
+    private int requests;
+
+    @Label("Failures")
+    @Description("The number of requests that failed")
+    private int failures;
+
+    int getEndpoints() {
+      return this.endpoints;
+    }
+
+    void setEndpoints(int endpoints) {
+      this.endpoints = endpoints;
+    }
+
+    int getRequests() {
+      return this.requests;
+    }
+
+    void setRequests(int requests) {
+      this.requests = requests;
+    }
+
+    int getFailures() {
+      return this.failures;
+    }
+
+    void setFailures(int failures) {
+      this.failures = failures;
+    }
+
+  }
+
+}
@@ -0,0 +1,48 @@
+package com.github.marschall.jfr.resttemplate;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Provides the trace and span ids recorded by {@link JfrRestOperations}.
+ * <p>
+ * The methods are only called on the thread that performed the operation,
+ * after the operation has completed, and only when the event is going to be
+ * committed. Implementations should return ids that already exist rather
+ * than compute new ones. The span of the request has ended by then, a span
+ * looked up from the current thread is the span of the caller. Prefer reading
+ * the span id from the propagated request headers.
+ *
+ * @see JfrRestOperations#JfrRestOperations(org.springframework.web.client.RestOperations, TraceContextProvider)
+ */
+public interface TraceContextProvider {
+
+  /**
+   * Returns the trace id of the operation.
+   *
+   * @param requestHeaders the headers of the request sent, {@code null} if
+   *                       {@link JfrClientHttpRequestFactory} is not used
+   * @return the trace id, may be {@code null}
+   */
+  String getTraceId(HttpHeaders requestHeaders);
+
+  /**
+   * Returns the span id of the operation.
+   *
+   * @param requestHeaders the headers of the request sent, {@code null} if
+   *                       {@link JfrClientHttpRequestFactory} is not used
+   * @return the span id, may be {@code null}
+   */
+  String getSpanId(HttpHeaders requestHeaders);
+
+  /**
+   * Returns a {@link TraceContextProvider} that reads the ids from the
+   * <a href="https://www.w3.org/TR/trace-context/#traceparent-header">W3C traceparent</a>
+   * header of the request sent. Requires {@link JfrClientHttpRequestFactory}.
+   *
+   * @return a {@link TraceContextProvider} based on the {@code traceparent} header
+   */
+  static TraceContextProvider traceparent() {
+    return TraceparentTraceContextProvider.INSTANCE;
+  }
+
+}
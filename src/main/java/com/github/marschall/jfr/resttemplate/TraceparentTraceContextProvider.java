@@ -0,0 +1,91 @@
+package com.github.marschall.jfr.resttemplate;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Reads the ids from the W3C {@code traceparent} header which has the format
+ * {@code version-traceid-parentid-flags}, eg.
+ * {@code 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01}.
+ * <p>
+ * The header is validated without allocating, malformed headers and the
+ * invalid all zero ids are ignored. Extracting the ids allocates one string
+ * each, JFR string fields can not refer to a part of a string. This only
+ * happens for events that are committed.
+ */
+final class TraceparentTraceContextProvider implements TraceContextProvider {
+
+  static final TraceContextProvider INSTANCE = new TraceparentTraceContextProvider();
+
+  static final String TRACEPARENT = "traceparent";
+
+  private static final int TRACE_ID_START = 3;
+
+  private static final int TRACE_ID_END = TRACE_ID_START + 32;
+
+  private static final int SPAN_ID_START = TRACE_ID_END + 1;
+
+  private static final int SPAN_ID_END = SPAN_ID_START + 16;
+
+  private TraceparentTraceContextProvider() {
+    super();
+  }
+
+  @Override
+  public String getTraceId(HttpHeaders requestHeaders) {
+    String traceparent = getTraceparent(requestHeaders);
+    if (traceparent == null) {
+      return null;
+    }
+    return traceparent.substring(TRACE_ID_START, TRACE_ID_END);
+  }
+
+  @Override
+  public String getSpanId(HttpHeaders requestHeaders) {
+    String traceparent = getTraceparent(requestHeaders);
+    if (traceparent == null) {
+      return null;
+    }
+    return traceparent.substring(SPAN_ID_START, SPAN_ID_END);
+  }
+
+  private static String getTraceparent(HttpHeaders requestHeaders) {
+    if (requestHeaders == null) {
+      return null;
+    }
+    String traceparent = requestHeaders.getFirst(TRACEPARENT);
+    if (traceparent == null
+        || traceparent.length() < SPAN_ID_END
+        || !isHex(traceparent, 0, TRACE_ID_START - 1)
+        || traceparent.charAt(TRACE_ID_START - 1) != '-'
+        || !isValidId(traceparent, TRACE_ID_START, TRACE_ID_END)
+        || traceparent.charAt(SPAN_ID_START - 1) != '-'
+        || !isValidId(traceparent, SPAN_ID_START, SPAN_ID_END)) {
+      return null;
+    }
+    return traceparent;
+  }
+
+  private static boolean isValidId(String s, int start, int end) {
+    if (!isHex(s, start, end)) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (s.charAt(i) != '0') {
+        return true;
+      }
+    }
+    // all zero ids are invalid
+    return false;
+  }
+
+  private static boolean isHex(String s, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
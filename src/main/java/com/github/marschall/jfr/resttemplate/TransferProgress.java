@@ -0,0 +1,178 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Keeps track of the response bodies currently being read and periodically
+ * emits a {@link ProgressEvent} for each of them.
+ * <p>
+ * Because the events are emitted from a periodic hook rather than from the
+ * reading thread, stalled transfers show up as well.
+ */
+final class TransferProgress {
+
+  private static final Set<Transfer> TRANSFERS = ConcurrentHashMap.newKeySet();
+
+  private static final EventType PROGRESS_EVENT_TYPE;
+
+  static {
+    FlightRecorder.addPeriodicEvent(ProgressEvent.class, TransferProgress::emit);
+    PROGRESS_EVENT_TYPE = EventType.getEventType(ProgressEvent.class);
+  }
+
+  private TransferProgress() {
+    throw new AssertionError("not instantiable");
+  }
+
+  static Transfer begin(RestEvent event, CountingInputStream body, long firstByte) {
+    if (!PROGRESS_EVENT_TYPE.isEnabled()) {
+      return null;
+    }
+    Transfer transfer = new Transfer(event.getMethod(), event.getUri(), body, firstByte);
+    TRANSFERS.add(transfer);
+    return transfer;
+  }
+
+  static void end(Transfer transfer) {
+    if (transfer != null) {
+      TRANSFERS.remove(transfer);
+    }
+  }
+
+  static long bytesPerSecond(long bytes, long nanos) {
+    return (long) (bytes * 1_000_000_000.0d / nanos);
+  }
+
+  private static void emit() {
+    long now = System.nanoTime();
+    for (Transfer transfer : TRANSFERS) {
+      long bytes = transfer.body.getCount();
+      long interval = now - transfer.lastEmitted;
+      ProgressEvent event = new ProgressEvent();
+      event.setMethod(transfer.method);
+      event.setUri(transfer.uri);
+      event.setBytesRead(bytes);
+      event.setElapsed(now - transfer.firstByte);
+      if (interval > 0L) {
+        event.setThroughput(bytesPerSecond(bytes - transfer.lastBytes, interval));
+      }
+      event.commit();
+      transfer.lastBytes = bytes;
+      transfer.lastEmitted = now;
+    }
+  }
+
+  static final class Transfer {
+
+    final String method;
+
+    final String uri;
+
+    final CountingInputStream body;
+
+    final long firstByte;
+
+    // only accessed by the periodic hook
+    long lastBytes;
+
+    long lastEmitted;
+
+    Transfer(String method, String uri, CountingInputStream body, long firstByte) {
+      this.method = method;
+      this.uri = uri;
+      this.body = body;
+      this.firstByte = firstByte;
+      this.lastEmitted = firstByte;
+    }
+
+  }
+
+  @Label("Progress")
+  @Description("The progress of reading a response body")
+  @Category("Spring REST")
+  @Period("1 s")
+  @StackTrace(false)
+  static class ProgressEvent extends Event {
+
+    @Label("Method")
+    @Description("The name of the HTTP method")
+    private String method;
+
+    @Label("URI")
+    @Description("The HTTP URI")
+    private String uri;
+
+    @Label("Bytes Read")
+    @Description("The number of bytes of the response body read so far")
+    @DataAmount
+    private long bytesRead;
+
+    @Label("Elapsed")
+    @Description("The time since the first byte was received")
+    @Timespan
+    private long elapsed;
+
+    @Label("Throughput")
+    @Description("The throughput since the last progress event")
+    @DataAmount
+    @Frequency
+    private long throughput;
+
+    String getMethod() {
+      return this.method;
+    }
+
+    void setMethod(String method) {
+      this.method = method;
+    }
+
+    String getUri() {
+      return this.uri;
+    }
+
+    void setUri(String uri) {
+      this.uri = uri;
+    }
+
+    long getBytesRead() {
+      return this.bytesRead;
+    }
+
+    void setBytesRead(long bytesRead) {
+      this.bytesRead = bytesRead;
+    }
+
+    long getElapsed() {
+      return this.elapsed;
+    }
+
+    void setElapsed(long elapsed) {
+      this.elapsed = elapsed;
+    }
+
+    long getThroughput() {
+      return this.throughput;
+    }
+
+    void setThroughput(long throughput) {
+      this.throughput = throughput;
+    }
+
+  }
+
+}
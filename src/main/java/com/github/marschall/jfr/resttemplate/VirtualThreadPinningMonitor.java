@@ -0,0 +1,457 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Detects virtual threads that were pinned to their carrier thread while
+ * performing a REST operation.
+ * <p>
+ * Correlates {@code jdk.VirtualThreadPinned} events with the events of
+ * {@link JfrRestOperations} performed on virtual threads through a
+ * {@link RecordingStream}. For every operation during which the virtual thread
+ * was pinned a "Pinned Operation" event is generated. In addition a "Pinning
+ * Statistics" event is generated every 60 seconds per URI and request factory
+ * with the number of pinned operations so that the endpoints and request
+ * factories that pin most often can be found. Use
+ * {@link JfrClientHttpRequestFactory} to have the request factory recorded.
+ * <p>
+ * As events are delivered asynchronously the pinning is only known after the
+ * operation completed. Requires Java 21, on earlier versions no events are
+ * generated.
+ */
+public final class VirtualThreadPinningMonitor implements AutoCloseable {
+
+  static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+  /**
+   * How long operations and pinned events are kept waiting for a match.
+   */
+  static final Duration RETENTION = Duration.ofSeconds(10L);
+
+  /**
+   * How often operations and pinned events older than {@link #RETENTION} are
+   * dropped.
+   */
+  static final Duration SWEEP_INTERVAL = Duration.ofSeconds(1L);
+
+  private final RecordingStream stream;
+
+  // only accessed from the stream thread, except the statistics
+  private final Map<Long, ArrayDeque<Operation>> operations;
+
+  private final Map<Long, ArrayDeque<Pinning>> pinnings;
+
+  private final Map<StatisticsKey, Statistics> statistics;
+
+  private final Runnable periodicHook;
+
+  // events committed on the stream thread are not recorded
+  private final ExecutorService committer;
+
+  private Instant latest;
+
+  private Instant lastSweep;
+
+  /**
+   * Constructs a new {@link VirtualThreadPinningMonitor} that reports pinning
+   * of at least 20 ms, the default threshold of {@code jdk.VirtualThreadPinned}.
+   * Call {@link #start()} to start monitoring.
+   */
+  public VirtualThreadPinningMonitor() {
+    this(Duration.ofMillis(20L));
+  }
+
+  /**
+   * Constructs a new {@link VirtualThreadPinningMonitor}. Call {@link #start()}
+   * to start monitoring.
+   *
+   * @param threshold the minimum duration of pinning to report, not {@code null}
+   */
+  public VirtualThreadPinningMonitor(Duration threshold) {
+    Objects.requireNonNull(threshold, "threshold");
+    this.operations = new HashMap<>();
+    this.pinnings = new HashMap<>();
+    this.statistics = new HashMap<>();
+    this.latest = Instant.MIN;
+    this.lastSweep = Instant.MIN;
+    this.stream = new RecordingStream();
+    this.stream.enable(PINNED_EVENT).withThreshold(threshold).withoutStackTrace();
+    this.stream.enable(RestEvent.class).withoutStackTrace();
+    this.stream.onEvent(PINNED_EVENT, this::onPinnedEvent);
+    this.stream.onEvent(RestEvent.class.getName(), this::onRestEvent);
+    this.periodicHook = this::emitStatistics;
+    this.committer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Pinned Operation Events");
+      thread.setDaemon(true);
+      return thread;
+    });
+    FlightRecorder.addPeriodicEvent(StatisticsEvent.class, this.periodicHook);
+  }
+
+  /**
+   * Starts monitoring in a background thread.
+   */
+  public void start() {
+    this.stream.startAsync();
+  }
+
+  /**
+   * Stops monitoring, waits up to one second for pending events to be
+   * committed.
+   */
+  @Override
+  public void close() {
+    FlightRecorder.removePeriodicEvent(this.periodicHook);
+    this.stream.close();
+    this.committer.shutdown();
+    try {
+      this.committer.awaitTermination(1L, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void onRestEvent(RecordedEvent event) {
+    if (!event.getBoolean("virtualThread")) {
+      return;
+    }
+    RecordedThread thread = event.getThread();
+    if (thread == null) {
+      return;
+    }
+    RecordedClass requestFactory = event.getClass("requestFactory");
+    this.onOperation(thread.getJavaThreadId(), event.getStartTime(), event.getEndTime(),
+            event.getString("method"), event.getString("uri"),
+            requestFactory != null ? requestFactory.getName() : null);
+  }
+
+  private void onPinnedEvent(RecordedEvent event) {
+    RecordedThread thread = event.getThread();
+    if (thread == null) {
+      return;
+    }
+    this.onPinned(thread.getJavaThreadId(), event.getStartTime(), event.getDuration());
+  }
+
+  void onOperation(long threadId, Instant start, Instant end, String method, String uri, String requestFactory) {
+    Operation operation = new Operation(start, end, method, uri, requestFactory);
+    ArrayDeque<Pinning> threadPinnings = this.pinnings.get(threadId);
+    if (threadPinnings != null) {
+      for (Iterator<Pinning> iterator = threadPinnings.iterator(); iterator.hasNext();) {
+        Pinning pinning = iterator.next();
+        if (operation.contains(pinning.start)) {
+          this.matched(operation, pinning.duration);
+          iterator.remove();
+        }
+      }
+    }
+    this.operations.computeIfAbsent(threadId, id -> new ArrayDeque<>()).add(operation);
+    this.advance(end);
+  }
+
+  void onPinned(long threadId, Instant start, Duration duration) {
+    ArrayDeque<Operation> threadOperations = this.operations.get(threadId);
+    if (threadOperations != null) {
+      for (Operation operation : threadOperations) {
+        if (operation.contains(start)) {
+          this.matched(operation, duration);
+          this.advance(start);
+          return;
+        }
+      }
+    }
+    // the operation event may not have been delivered yet
+    this.pinnings.computeIfAbsent(threadId, id -> new ArrayDeque<>()).add(new Pinning(start, duration));
+    this.advance(start);
+  }
+
+  private void matched(Operation operation, Duration duration) {
+    this.committer.execute(() -> {
+      PinnedOperationEvent event = new PinnedOperationEvent();
+      event.setMethod(operation.method);
+      event.setUri(operation.uri);
+      event.setRequestFactory(operation.requestFactory);
+      event.setPinnedTime(duration.toNanos());
+      event.commit();
+    });
+
+    StatisticsKey key = new StatisticsKey(operation.uri, operation.requestFactory);
+    synchronized (this.statistics) {
+      Statistics counters = this.statistics.computeIfAbsent(key, k -> new Statistics());
+      counters.pinnedOperations += 1L;
+      counters.pinnedTime += duration.toNanos();
+    }
+  }
+
+  /**
+   * Drops operations and pinned events that are too old to be matched. Scans
+   * all threads, so at most once per {@link #SWEEP_INTERVAL} of event time.
+   */
+  private void advance(Instant time) {
+    if (time.isAfter(this.latest)) {
+      this.latest = time;
+    }
+    if (this.latest.isBefore(this.lastSweep.plus(SWEEP_INTERVAL))) {
+      return;
+    }
+    this.lastSweep = this.latest;
+    Instant cutoff = this.latest.minus(RETENTION);
+    this.operations.values().removeIf(threadOperations -> {
+      threadOperations.removeIf(operation -> operation.end.isBefore(cutoff));
+      return threadOperations.isEmpty();
+    });
+    this.pinnings.values().removeIf(threadPinnings -> {
+      threadPinnings.removeIf(pinning -> pinning.start.isBefore(cutoff));
+      return threadPinnings.isEmpty();
+    });
+  }
+
+  private void emitStatistics() {
+    synchronized (this.statistics) {
+      for (Map.Entry<StatisticsKey, Statistics> entry : this.statistics.entrySet()) {
+        StatisticsEvent event = new StatisticsEvent();
+        event.setUri(entry.getKey().uri);
+        event.setRequestFactory(entry.getKey().requestFactory);
+        event.setPinnedOperations(entry.getValue().pinnedOperations);
+        event.setPinnedTime(entry.getValue().pinnedTime);
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of pinned operations per URI and request factory
+   * observed so far.
+   *
+   * @return the number of pinned operations by URI and request factory,
+   *         the request factory is {@code null} if not known
+   */
+  public Map<String, Map<String, Long>> getPinnedOperations() {
+    Map<String, Map<String, Long>> report = new HashMap<>();
+    synchronized (this.statistics) {
+      for (Map.Entry<StatisticsKey, Statistics> entry : this.statistics.entrySet()) {
+        report.computeIfAbsent(entry.getKey().uri, uri -> new HashMap<>())
+                .put(entry.getKey().requestFactory, entry.getValue().pinnedOperations);
+      }
+    }
+    return report;
+  }
+
+  static final class Operation {
+
+    final Instant start;
+
+    final Instant end;
+
+    final String method;
+
+    final String uri;
+
+    final String requestFactory;
+
+    Operation(Instant start, Instant end, String method, String uri, String requestFactory) {
+      this.start = start;
+      this.end = end;
+      this.method = method;
+      this.uri = uri;
+      this.requestFactory = requestFactory;
+    }
+
+    boolean contains(Instant time) {
+      return !time.isBefore(this.start) && !time.isAfter(this.end);
+    }
+
+  }
+
+  static final class Pinning {
+
+    final Instant start;
+
+    final Duration duration;
+
+    Pinning(Instant start, Duration duration) {
+      this.start = start;
+      this.duration = duration;
+    }
+
+  }
+
+  static final class StatisticsKey {
+
+    final String uri;
+
+    final String requestFactory;
+
+    StatisticsKey(String uri, String requestFactory) {
+      this.uri = uri;
+      this.requestFactory = requestFactory;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof StatisticsKey)) {
+        return false;
+      }
+      StatisticsKey other = (StatisticsKey) obj;
+      return Objects.equals(this.uri, other.uri)
+              && Objects.equals(this.requestFactory, other.requestFactory);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.uri, this.requestFactory);
+    }
+
+  }
+
+  static final class Statistics {
+
+    long pinnedOperations;
+
+    long pinnedTime;
+
+  }
+
+  @Label("Pinned Operation")
+  @Description("A virtual thread was pinned to its carrier thread during a REST operation")
+  @Category("Spring REST")
+  @StackTrace(false)
+  static class PinnedOperationEvent extends Event {
+
+    @Label("Method")
+    @Description("The name of the HTTP method")
+    private String method;
+
+    @Label("URI")
+    @Description("The HTTP URI")
+    private String uri;
+
+    @Label("Request Factory")
+    @Description("The name of the ClientHttpRequestFactory used, if known")
+    private String requestFactory;
+
+    @Label("Pinned Time")
+    @Description("For how long the virtual thread was pinned")
+    @Timespan
+    private long pinnedTime;
+
+    String getMethod() {
+      return this.method;
+    }
+
+    void setMethod(String method) {
+      this.method = method;
+    }
+
+    String getUri() {
+      return this.uri;
+    }
+
+    void setUri(String uri) {
+      this.uri = uri;
+    }
+
+    String getRequestFactory() {
+      return this.requestFactory;
+    }
+
+    void setRequestFactory(String requestFactory) {
+      this.requestFactory = requestFactory;
+    }
+
+    long getPinnedTime() {
+      return this.pinnedTime;
+    }
+
+    void setPinnedTime(long pinnedTime) {
+      this.pinnedTime = pinnedTime;
+    }
+
+  }
+
+  @Label("Pinning Statistics")
+  @Description("The number of REST operations during which the virtual thread was pinned, per URI and request factory")
+  @Category("Spring REST")
+  @Period("60 s")
+  @StackTrace(false)
+  static class StatisticsEvent extends Event {
+
+    @Label("URI")
+    @Description("The HTTP URI")
+    private String uri;
+
+    @Label("Request Factory")
+    @Description("The name of the ClientHttpRequestFactory used, if known")
+    private String requestFactory;
+
+    @Label("Pinned Operations")
+    @Description("The number of pinned operations since monitoring started")
+    private long pinnedOperations;
+
+    @Label("Pinned Time")
+    @Description("The total time virtual threads were pinned since monitoring started")
+    @Timespan
+    private long pinnedTime;
+
+    String getUri() {
+      return this.uri;
+    }
+
+    void setUri(String uri) {
+      this.uri = uri;
+    }
+
+    String getRequestFactory() {
+      return this.requestFactory;
+    }
+
+    void setRequestFactory(String requestFactory) {
+      this.requestFactory = requestFactory;
+    }
+
+    long getPinnedOperations() {
+      return this.pinnedOperations;
+    }
+
+    void setPinnedOperations(long pinnedOperations) {
+      this.pinnedOperations = pinnedOperations;
+    }
+
+    long getPinnedTime() {
+      return this.pinnedTime;
+    }
+
+    void setPinnedTime(long pinnedTime) {
+      this.pinnedTime = pinnedTime;
+    }
+
+  }
+
+}
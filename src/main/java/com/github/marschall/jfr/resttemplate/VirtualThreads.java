@@ -0,0 +1,19 @@
+package com.github.marschall.jfr.resttemplate;
+
+/**
+ * Access to virtual thread information on Java 21 and later.
+ * <p>
+ * This is the Java 17 version where there are no virtual threads, the Java 21
+ * version is in the multi-release part of the JAR.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+    throw new AssertionError("not instantiable");
+  }
+
+  static boolean isVirtual(Thread thread) {
+    return false;
+  }
+
+}
@@ -0,0 +1,16 @@
+package com.github.marschall.jfr.resttemplate;
+
+/**
+ * Access to virtual thread information on Java 21 and later.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+    throw new AssertionError("not instantiable");
+  }
+
+  static boolean isVirtual(Thread thread) {
+    return thread.isVirtual();
+  }
+
+}
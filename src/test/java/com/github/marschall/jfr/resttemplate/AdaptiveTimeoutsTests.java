@@ -0,0 +1,138 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class AdaptiveTimeoutsTests {
+
+  private static final long MILLIS = 1_000_000L;
+
+  @Test
+  void ceilingUntilEnoughSamples() {
+    AdaptiveTimeouts timeouts = new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofMillis(10L), Duration.ofSeconds(10L));
+    assertEquals(Duration.ofSeconds(10L).toNanos(), timeouts.getTimeout("/users/{id}"));
+    for (int i = 0; i < AdaptiveTimeouts.MIN_SAMPLES - 1; i++) {
+      timeouts.recordLatency("/users/{id}", 20L * MILLIS);
+    }
+    assertEquals(Duration.ofSeconds(10L).toNanos(), timeouts.getTimeout("/users/{id}"));
+  }
+
+  @Test
+  void percentileMultiple() {
+    AdaptiveTimeouts timeouts = new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofMillis(10L), Duration.ofSeconds(10L));
+    for (int i = 0; i < 100; i++) {
+      timeouts.recordLatency("/users/{id}", 20L * MILLIS);
+    }
+    long timeout = timeouts.getTimeout("/users/{id}");
+    // buckets are about 19% apart
+    assertTrue(timeout >= 40L * MILLIS, "timeout " + timeout);
+    assertTrue(timeout <= 48L * MILLIS, "timeout " + timeout);
+  }
+
+  @Test
+  void floor() {
+    AdaptiveTimeouts timeouts = new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofMillis(10L), Duration.ofSeconds(10L));
+    for (int i = 0; i < 100; i++) {
+      timeouts.recordLatency("/users/{id}", MILLIS);
+    }
+    assertEquals(10L * MILLIS, timeouts.getTimeout("/users/{id}"));
+  }
+
+  @Test
+  void invalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveTimeouts(1.5d, 2.0d, Duration.ofMillis(10L), Duration.ofSeconds(10L)));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveTimeouts(0.99d, 0.5d, Duration.ofMillis(10L), Duration.ofSeconds(10L)));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofSeconds(10L), Duration.ofMillis(10L)));
+  }
+
+  @Test
+  void timeoutHit() throws IOException {
+    JfrHttp2ClientHttpRequestFactory requestFactory = new JfrHttp2ClientHttpRequestFactory();
+    requestFactory.setAdaptiveTimeouts(newTimeouts());
+    assertTimeoutHit(requestFactory);
+  }
+
+  @Test
+  void timeoutHitSimple() throws IOException {
+    assertTimeoutHit(new AdaptiveTimeoutClientHttpRequestFactory(newTimeouts()));
+  }
+
+  @Test
+  void latencySimple() throws IOException {
+    try (LoopbackServer server = new LoopbackServer().echo("/echo").start()) {
+      AdaptiveTimeouts timeouts = new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofMillis(10L), Duration.ofSeconds(10L));
+      RestOperations restOperations = new JfrRestOperations(new RestTemplate(new AdaptiveTimeoutClientHttpRequestFactory(timeouts)));
+      String url = server.getBaseUrl() + "/echo";
+      for (int i = 0; i < AdaptiveTimeouts.MIN_SAMPLES; i++) {
+        assertEquals("ping", restOperations.postForObject(url, "ping", String.class));
+      }
+      assertTrue(timeouts.getTimeout(url) < Duration.ofSeconds(10L).toNanos());
+    }
+  }
+
+  private static AdaptiveTimeouts newTimeouts() {
+    return new AdaptiveTimeouts(0.99d, 2.0d, Duration.ofMillis(10L), Duration.ofMillis(100L));
+  }
+
+  private static void assertTimeoutHit(ClientHttpRequestFactory requestFactory) throws IOException {
+    try (LoopbackServer server = new LoopbackServer()
+            .handle("/fast", exchange -> {
+              exchange.sendResponseHeaders(204, -1L);
+              exchange.close();
+            })
+            .handle("/slow", exchange -> {
+              try {
+                Thread.sleep(500L);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              LoopbackServer.respond(exchange, 200, "text/plain", "slow".getBytes(StandardCharsets.US_ASCII));
+            })
+            .start()) {
+      RestTemplate restTemplate = new RestTemplate(requestFactory);
+      RestOperations restOperations = new JfrRestOperations(restTemplate);
+      String baseUrl = server.getBaseUrl();
+      String url = baseUrl + "/slow";
+      // open the connection and load the classes so that they do not count towards the timeout
+      restTemplate.delete(baseUrl + "/fast");
+
+      List<RecordedEvent> events;
+      try (Recording recording = new Recording()) {
+        recording.enable(AdaptiveTimeouts.TimeoutEvent.class);
+        recording.enable(JfrRestOperations.RestEvent.class);
+        recording.start();
+        assertThrows(ResourceAccessException.class, () -> restOperations.getForObject(url, String.class));
+        recording.stop();
+        events = readEvents(recording);
+      }
+      RecordedEvent timeoutEvent = events.stream()
+              .filter(event -> event.getEventType().getName().equals(AdaptiveTimeouts.TimeoutEvent.class.getName()))
+              .findFirst()
+              .orElseThrow();
+      assertEquals(url, timeoutEvent.getString("endpoint"));
+      assertEquals(100L * MILLIS, timeoutEvent.getLong("timeout"));
+      RecordedEvent restEvent = events.stream()
+              .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+              .findFirst()
+              .orElseThrow();
+      assertEquals(JfrRestOperations.PHASE_TIMEOUT, restEvent.getString("failurePhase"));
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class JfrClientHttpRequestFactoryTests {
+
+  private static final int DOWNLOAD_SIZE = 1024 * 1024;
+
+  private LoopbackServer server;
+
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.server = new LoopbackServer()
+            .echo("/echo")
+            .handle("/delayed", exchange -> {
+              LoopbackServer.readBody(exchange);
+              sleep(500L);
+              exchange.getResponseHeaders().add("Content-Type", "text/plain");
+              exchange.sendResponseHeaders(200, -1L);
+              exchange.close();
+            })
+            .handle("/download", exchange -> {
+              exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+              exchange.sendResponseHeaders(200, DOWNLOAD_SIZE);
+              byte[] chunk = new byte[DOWNLOAD_SIZE / 4];
+              try (OutputStream responseBody = exchange.getResponseBody()) {
+                for (int i = 0; i < 4; i++) {
+                  responseBody.write(chunk);
+                  responseBody.flush();
+                  sleep(600L);
+                }
+              }
+            })
+            .start();
+    this.baseUrl = this.server.getBaseUrl();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.close();
+  }
+
+  @Test
+  void requestSize() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())));
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      String response = restOperations.postForObject(this.baseUrl + "/echo", "payload", String.class);
+      assertEquals("payload", response);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals(String.class.getName(), event.getClass("requestType").getName());
+    assertEquals(1, event.getInt("requestObjectCount"));
+    assertEquals("payload".getBytes(StandardCharsets.UTF_8).length, event.getLong("requestSize"));
+    assertTrue(event.getLong("serializationTime") > 0L);
+  }
+
+  @Test
+  void notFound() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())));
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      assertThrows(HttpClientErrorException.NotFound.class, () -> restOperations.delete(this.baseUrl + "/missing"));
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals(404, event.getInt("statusCode"));
+    assertEquals(JfrRestOperations.PHASE_STATUS, event.getString("failurePhase"));
+    assertEquals(HttpClientErrorException.NotFound.class.getName(), event.getClass("exceptionType").getName());
+  }
+
+  @Test
+  void traceparent() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(
+        new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())),
+        TraceContextProvider.traceparent());
+    HttpHeaders headers = new HttpHeaders();
+    headers.add("traceparent", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      restOperations.exchange(this.baseUrl + "/echo", HttpMethod.POST, new HttpEntity<>("payload", headers), String.class);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", event.getString("traceId"));
+    assertEquals("00f067aa0ba902b7", event.getString("spanId"));
+    assertFalse(event.hasField("requestHeaders"));
+  }
+
+  @Test
+  void malformedTraceparent() {
+    TraceContextProvider provider = TraceContextProvider.traceparent();
+    for (String traceparent : List.of(
+        "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b",
+        "00-4bf92f3577b34da6a3ce929d0e0e473x-00f067aa0ba902b7-01",
+        "00-00000000000000000000000000000000-00f067aa0ba902b7-01",
+        "00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01",
+        "00_4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")) {
+      HttpHeaders headers = new HttpHeaders();
+      headers.add("traceparent", traceparent);
+      assertNull(provider.getTraceId(headers), traceparent);
+      assertNull(provider.getSpanId(headers), traceparent);
+    }
+  }
+
+  @Test
+  void streamingDownload() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())));
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.enable(TransferProgress.ProgressEvent.class).withPeriod(Duration.ofMillis(200L));
+      recording.start();
+      Long size = restOperations.execute(this.baseUrl + "/download", HttpMethod.GET, null, response -> {
+        try (InputStream body = response.getBody()) {
+          return body.transferTo(OutputStream.nullOutputStream());
+        }
+      });
+      assertEquals(DOWNLOAD_SIZE, size.longValue());
+      recording.stop();
+      events = readEvents(recording);
+    }
+    List<RecordedEvent> restEvents = events.stream()
+        .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+        .toList();
+    assertEquals(1, restEvents.size());
+    RecordedEvent event = restEvents.get(0);
+    assertEquals(DOWNLOAD_SIZE, event.getLong("responseSize"));
+    assertTrue(event.getLong("timeToFirstByte") > 0L);
+    assertTrue(event.getLong("throughput") > 0L);
+    assertTrue(event.getLong("timeToFirstByte") < event.getDuration().toNanos());
+
+    assertTrue(events.stream()
+        .filter(e -> e.getEventType().getName().equals(TransferProgress.ProgressEvent.class.getName()))
+        .anyMatch(e -> e.getLong("bytesRead") > 0L && e.getLong("bytesRead") < DOWNLOAD_SIZE));
+  }
+
+  @Test
+  void timeToFirstByteWithBody() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())));
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      restOperations.postForObject(this.baseUrl + "/delayed", "payload", String.class);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    // the time waiting for the server is part of the time to first byte
+    assertTrue(events.get(0).getLong("timeToFirstByte") >= Duration.ofMillis(500L).toNanos());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class JfrHttp2ClientHttpRequestFactoryTests {
+
+  private static final int PAYLOAD_SIZE = 256 * 1024 + 17;
+
+  private LoopbackServer server;
+
+  private String baseUrl;
+
+  private AtomicInteger completeBodies;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.completeBodies = new AtomicInteger();
+    this.server = new LoopbackServer()
+            .handle("/echo", exchange -> {
+              byte[] body = LoopbackServer.readBody(exchange);
+              this.completeBodies.incrementAndGet();
+              LoopbackServer.respond(exchange, 200, "application/octet-stream", body);
+            })
+            .start();
+    this.baseUrl = this.server.getBaseUrl();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.close();
+  }
+
+  @Test
+  void streamingPost() throws IOException {
+    RestTemplate restTemplate = new RestTemplate(new JfrHttp2ClientHttpRequestFactory());
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    Arrays.fill(payload, (byte) 'x');
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrHttp2ClientHttpRequestFactory.StreamEvent.class);
+      recording.start();
+      byte[] response = restTemplate.postForObject(this.baseUrl + "/echo", payload, byte[].class);
+      assertArrayEquals(payload, response);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("POST", event.getString("method"));
+    // the JDK HttpServer does not support h2c and the upgrade is declined
+    assertEquals("HTTP/1.1", event.getString("protocol"));
+    assertEquals(200, event.getInt("statusCode"));
+    assertFalse(event.getBoolean("connectionReused"));
+    assertTrue(event.getInt("concurrentStreams") >= 1);
+  }
+
+  @Test
+  void bufferedPost() throws IOException {
+    JfrHttp2ClientHttpRequestFactory requestFactory = new JfrHttp2ClientHttpRequestFactory();
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    Arrays.fill(payload, (byte) 'y');
+
+    ClientHttpRequest request = requestFactory.createRequest(URI.create(this.baseUrl + "/echo"), HttpMethod.POST);
+    request.getBody().write(payload);
+    try (ClientHttpResponse response = request.execute();
+         InputStream body = response.getBody()) {
+      assertEquals(200, response.getStatusCode().value());
+      assertArrayEquals(payload, body.readAllBytes());
+    }
+  }
+
+  @Test
+  void bodyWriterFails() throws IOException, InterruptedException {
+    JfrHttp2ClientHttpRequestFactory requestFactory = new JfrHttp2ClientHttpRequestFactory();
+    ClientHttpRequest request = requestFactory.createRequest(URI.create(this.baseUrl + "/echo"), HttpMethod.POST);
+    // no Content-Length, the body is sent chunked
+    ((StreamingHttpOutputMessage) request).setBody(outputStream -> {
+      outputStream.write(new byte[PAYLOAD_SIZE]);
+      throw new IllegalStateException("serialization failed halfway");
+    });
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrHttp2ClientHttpRequestFactory.StreamEvent.class);
+      recording.start();
+      assertThrows(Exception.class, request::execute);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    // give the server the chance to wrongly complete the request
+    Thread.sleep(200L);
+    assertEquals(0, this.completeBodies.get());
+    assertEquals(1, events.size());
+    assertEquals(0, events.get(0).getInt("statusCode"));
+  }
+
+  @Test
+  void notFound() throws IOException {
+    RestTemplate restTemplate = new RestTemplate(new JfrHttp2ClientHttpRequestFactory());
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrHttp2ClientHttpRequestFactory.StreamEvent.class);
+      recording.start();
+      assertThrows(HttpClientErrorException.NotFound.class, () -> restTemplate.getForObject(this.baseUrl + "/missing", String.class));
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    assertEquals(404, events.get(0).getInt("statusCode"));
+  }
+
+  @Test
+  void h2c() throws Exception {
+    Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    Server h2cServer = new Server();
+    HttpConfiguration configuration = new HttpConfiguration();
+    ServerConnector connector = new ServerConnector(h2cServer,
+            new HttpConnectionFactory(configuration), new HTTP2CServerConnectionFactory(configuration));
+    connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+    connector.setPort(0);
+    h2cServer.addConnector(connector);
+    h2cServer.setHandler(new Handler.Abstract() {
+
+      @Override
+      public boolean handle(Request request, Response response, Callback callback) {
+        // the port of the client identifies the connection
+        clientPorts.add(((InetSocketAddress) request.getConnectionMetaData().getRemoteSocketAddress()).getPort());
+        response.setStatus(200);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/plain");
+        Content.Sink.write(response, true, request.getConnectionMetaData().getProtocol(), callback);
+        return true;
+      }
+
+    });
+    h2cServer.start();
+    try {
+      RestTemplate restTemplate = new RestTemplate(new JfrHttp2ClientHttpRequestFactory());
+      String url = "http://" + connector.getHost() + ":" + connector.getLocalPort() + "/h2c";
+
+      List<RecordedEvent> events;
+      try (Recording recording = new Recording()) {
+        recording.enable(JfrHttp2ClientHttpRequestFactory.StreamEvent.class);
+        recording.start();
+        for (int i = 0; i < 3; i++) {
+          assertEquals("HTTP/2.0", restTemplate.getForObject(url, String.class));
+        }
+        recording.stop();
+        events = readEvents(recording);
+      }
+      events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+      assertEquals(3, events.size());
+      for (RecordedEvent event : events) {
+        assertEquals("HTTP/2", event.getString("protocol"));
+        assertEquals(200, event.getInt("statusCode"));
+      }
+      assertFalse(events.get(0).getBoolean("connectionReused"));
+      assertTrue(events.get(1).getBoolean("connectionReused"));
+      assertTrue(events.get(2).getBoolean("connectionReused"));
+      assertEquals(1, clientPorts.size());
+    } finally {
+      h2cServer.stop();
+    }
+  }
+
+  @Test
+  void connectionReuseReset() {
+    AuthorityStreams streams = new AuthorityStreams();
+    long now = System.nanoTime();
+    assertFalse(streams.isHttp2Established(now));
+    streams.responded(true, now);
+    assertTrue(streams.isHttp2Established(now));
+
+    // idle for too long
+    assertFalse(streams.isHttp2Established(now + AuthorityStreams.IDLE_TIMEOUT));
+    streams.open();
+    assertTrue(streams.isHttp2Established(now + AuthorityStreams.IDLE_TIMEOUT));
+    streams.close();
+
+    streams.connectionFailed();
+    assertFalse(streams.isHttp2Established(now));
+
+    streams.responded(true, now);
+    // fallback to HTTP/1.1
+    streams.responded(false, now);
+    assertFalse(streams.isHttp2Established(now));
+  }
+
+}
@@ -0,0 +1,88 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.observation.ObservationRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class JfrObservationHandlerTests {
+
+  private LoopbackServer server;
+
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.server = new LoopbackServer()
+            .text("/users", "user")
+            .start();
+    this.baseUrl = this.server.getBaseUrl();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.close();
+  }
+
+  @Test
+  void uriTemplate() throws IOException {
+    ObservationRegistry registry = ObservationRegistry.create();
+    registry.observationConfig().observationHandler(new JfrObservationHandler());
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.setObservationRegistry(registry);
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      assertEquals("user", restTemplate.getForObject(this.baseUrl + "/users/{id}", String.class, 1));
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals(this.baseUrl + "/users/{id}", event.getString("uri"));
+    assertEquals("GET", event.getString("method"));
+    assertEquals(200, event.getInt("statusCode"));
+  }
+
+  @Test
+  void warmup() throws IOException {
+    ObservationRegistry registry = ObservationRegistry.create();
+    registry.observationConfig().observationHandler(new JfrObservationHandler());
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.setObservationRegistry(registry);
+    RestWarmup warmup = new RestWarmup(restTemplate);
+    warmup.addEndpoint(URI.create(this.baseUrl + "/users/1"), String.class);
+    warmup.setIterations(2);
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.start();
+      warmup.run();
+      restTemplate.getForObject(this.baseUrl + "/users/{id}", String.class, 1);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    Map<Boolean, Long> counts = events.stream()
+            .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+            .collect(Collectors.partitioningBy(event -> event.getBoolean("warmup"), Collectors.counting()));
+    assertEquals(2L, counts.get(true));
+    assertEquals(1L, counts.get(false));
+  }
+
+}
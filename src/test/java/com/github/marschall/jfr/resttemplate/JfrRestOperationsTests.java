@@ -1,13 +1,38 @@
 package com.github.marschall.jfr.resttemplate;
 
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
+import com.github.marschall.jfr.resttemplate.JfrRestOperations.RestEvent;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
 class JfrRestOperationsTests {
 
   @Test
@@ -19,4 +44,89 @@ class JfrRestOperationsTests {
     assertNotNull(random);
   }
 
+  @Test
+  void nestedOperations() {
+    RestOperations inner = new JfrRestOperations(new RestTemplate((uri, httpMethod) -> {
+      throw new IOException("inner");
+    }));
+    List<RestEvent> currentEvents = new ArrayList<>();
+    RestOperations outer = new JfrRestOperations(new RestTemplate((uri, httpMethod) -> {
+      currentEvents.add(JfrRestOperations.CURRENT_EVENT.get());
+      assertThrows(ResourceAccessException.class, () -> inner.getForObject("http://localhost/inner", String.class));
+      currentEvents.add(JfrRestOperations.CURRENT_EVENT.get());
+      throw new IOException("outer");
+    }));
+
+    assertThrows(ResourceAccessException.class, () -> outer.getForObject("http://localhost/outer", String.class));
+    assertEquals(2, currentEvents.size());
+    assertNotNull(currentEvents.get(0));
+    assertEquals("http://localhost/outer", currentEvents.get(0).getUri());
+    assertSame(currentEvents.get(0), currentEvents.get(1));
+    assertNull(JfrRestOperations.CURRENT_EVENT.get());
+  }
+
+  @Test
+  void errorRates() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate((uri, httpMethod) -> {
+      throw new ConnectException("Connection refused");
+    }));
+    String url = "http://localhost/errorRates";
+    // not counted without a recording
+    assertThrows(ResourceAccessException.class, () -> restOperations.getForObject(url, String.class));
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(EndpointErrorRates.ErrorRateEvent.class).with("period", "endChunk");
+      recording.start();
+      assertThrows(ResourceAccessException.class, () -> restOperations.getForObject(url, String.class));
+      assertThrows(ResourceAccessException.class, () -> restOperations.getForObject(url, String.class));
+      recording.stop();
+      events = readEvents(recording);
+    }
+
+    RecordedEvent event = events.stream()
+        .filter(each -> each.getEventType().getName().equals(EndpointErrorRates.ErrorRateEvent.class.getName()))
+        .filter(each -> url.equals(each.getString("uri")))
+        .findFirst()
+        .orElseThrow();
+    assertEquals(2L, event.getLong("requests"));
+    assertEquals(2L, event.getLong("errors"));
+  }
+
+  @Test
+  void failurePhase() {
+    assertEquals(JfrRestOperations.PHASE_CONNECT, JfrRestOperations.getFailurePhase(
+        new ResourceAccessException("I/O error", new ConnectException("Connection refused"))));
+    assertEquals(JfrRestOperations.PHASE_CONNECT, JfrRestOperations.getFailurePhase(
+        new ResourceAccessException("I/O error", new HttpConnectTimeoutException("HTTP connect timed out"))));
+    assertEquals(JfrRestOperations.PHASE_CONNECT, JfrRestOperations.getFailurePhase(
+        new ResourceAccessException("I/O error", new IOException("wrapped", new ConnectException("Connection refused")))));
+    assertEquals(JfrRestOperations.PHASE_IO, JfrRestOperations.getFailurePhase(
+        new ResourceAccessException("I/O error", new SocketException("Connection reset"))));
+    assertEquals(JfrRestOperations.PHASE_TIMEOUT, JfrRestOperations.getFailurePhase(
+        new ResourceAccessException("I/O error", new SocketTimeoutException("Read timed out"))));
+    assertEquals(JfrRestOperations.PHASE_STATUS, JfrRestOperations.getFailurePhase(
+        new HttpClientErrorException(HttpStatus.NOT_FOUND)));
+    assertEquals(JfrRestOperations.PHASE_CONVERSION, JfrRestOperations.getFailurePhase(
+        new RestClientException("Error while extracting response", new HttpMessageNotReadableException("invalid", null, emptyInputMessage()))));
+    assertEquals(JfrRestOperations.PHASE_OTHER, JfrRestOperations.getFailurePhase(
+        new IllegalArgumentException()));
+  }
+
+  private static HttpInputMessage emptyInputMessage() {
+    return new HttpInputMessage() {
+
+      @Override
+      public HttpHeaders getHeaders() {
+        return HttpHeaders.EMPTY;
+      }
+
+      @Override
+      public InputStream getBody() {
+        return InputStream.nullInputStream();
+      }
+
+    };
+  }
+
 }
@@ -0,0 +1,273 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class LatencyAwareClientHttpRequestFactoryTests {
+
+  private static final InetAddress HEALTHY = address(127, 0, 0, 1);
+
+  private static final InetAddress FAILING = address(127, 0, 0, 2);
+
+  private static final InetAddress SLOW = address(127, 0, 0, 3);
+
+  private HttpServer server;
+
+  private ExecutorService serverExecutor;
+
+  private int port;
+
+  private Set<String> hostHeaders;
+
+  private Map<InetAddress, AtomicInteger> requests;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.hostHeaders = ConcurrentHashMap.newKeySet();
+    this.requests = new ConcurrentHashMap<>();
+    // bind to all addresses so that we can be reached through 127.0.0.1, 127.0.0.2 and 127.0.0.3
+    this.server = HttpServer.create(new InetSocketAddress(0), 0);
+    this.server.createContext("/ping", exchange -> {
+      InetAddress localAddress = exchange.getLocalAddress().getAddress();
+      this.requests.computeIfAbsent(localAddress, address -> new AtomicInteger()).incrementAndGet();
+      this.hostHeaders.add(exchange.getRequestHeaders().getFirst("Host"));
+      boolean failing = localAddress.equals(FAILING);
+      if (!failing) {
+        // make sure the failing address is faster so that it keeps being chosen until it is ejected
+        try {
+          Thread.sleep(localAddress.equals(SLOW) ? 500L : 25L);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      int status = failing ? 500 : 200;
+      byte[] body = "pong".getBytes(StandardCharsets.US_ASCII);
+      exchange.getResponseHeaders().add("Content-Type", "text/plain");
+      exchange.sendResponseHeaders(status, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    this.serverExecutor = Executors.newCachedThreadPool();
+    this.server.setExecutor(this.serverExecutor);
+    this.server.start();
+    this.port = this.server.getAddress().getPort();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.stop(0);
+    this.serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void ejectsFailingAddress() throws IOException {
+    LatencyAwareClientHttpRequestFactory requestFactory = new LatencyAwareClientHttpRequestFactory(
+            new SimpleClientHttpRequestFactory(), host -> new InetAddress[] {HEALTHY, FAILING});
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(requestFactory));
+    String url = "http://service:" + this.port + "/ping";
+    this.warmUp();
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.enable(LatencyAwareClientHttpRequestFactory.EjectionEvent.class);
+      recording.start();
+      for (int i = 0; i < 50; i++) {
+        try {
+          restOperations.getForObject(url, String.class);
+        } catch (HttpServerErrorException e) {
+          // expected for the failing address
+        }
+      }
+      recording.stop();
+      events = readEvents(recording);
+    }
+
+    List<RecordedEvent> ejections = events.stream()
+            .filter(event -> event.getEventType().getName().equals(LatencyAwareClientHttpRequestFactory.EjectionEvent.class.getName()))
+            .toList();
+    assertEquals(1, ejections.size());
+    assertEquals(FAILING.getHostAddress(), ejections.get(0).getString("address"));
+    assertEquals("error rate", ejections.get(0).getString("reason"));
+
+    Set<String> remoteAddresses = events.stream()
+            .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+            .map(event -> event.getString("remoteAddress"))
+            .collect(Collectors.toSet());
+    assertEquals(Set.of(HEALTHY.getHostAddress(), FAILING.getHostAddress()), remoteAddresses);
+    assertEquals(Set.of("service:" + this.port), this.hostHeaders);
+  }
+
+  @Test
+  void probesSlowAddressOnce() throws InterruptedException, ExecutionException {
+    LatencyAwareClientHttpRequestFactory requestFactory = new LatencyAwareClientHttpRequestFactory(
+            new SimpleClientHttpRequestFactory(), host -> new InetAddress[] {HEALTHY, SLOW});
+    requestFactory.setResolutionInterval(Duration.ofSeconds(1L));
+    RestOperations restOperations = new RestTemplate(requestFactory);
+    String url = "http://service:" + this.port + "/ping";
+
+    this.warmUp();
+
+    // one probe of each address, the remaining requests to the fast one
+    for (int i = 0; i < 10; i++) {
+      restOperations.getForObject(url, String.class);
+    }
+    assertEquals(1, this.requests.get(SLOW).get());
+    assertEquals(9, this.requests.get(HEALTHY).get());
+
+    // both addresses are due for a probe again
+    Thread.sleep(1_100L);
+    int concurrency = 10;
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<String>> responses = new ArrayList<>(concurrency);
+      for (int i = 0; i < concurrency; i++) {
+        responses.add(executor.submit(() -> {
+          start.await();
+          return restOperations.getForObject(url, String.class);
+        }));
+      }
+      start.countDown();
+      for (Future<String> response : responses) {
+        assertEquals("pong", response.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(2, this.requests.get(SLOW).get());
+    assertEquals(9 + concurrency - 1, this.requests.get(HEALTHY).get());
+  }
+
+  @Test
+  void keepsAddressesWhenResolutionFails() {
+    AtomicInteger resolutions = new AtomicInteger();
+    LatencyAwareClientHttpRequestFactory requestFactory = new LatencyAwareClientHttpRequestFactory(
+            new SimpleClientHttpRequestFactory(), host -> {
+              if (resolutions.incrementAndGet() == 1) {
+                throw new UnknownHostException(host);
+              }
+              if (resolutions.get() == 2) {
+                return new InetAddress[] {HEALTHY};
+              }
+              throw new UnknownHostException(host);
+            });
+    // resolve again on every request
+    requestFactory.setResolutionInterval(Duration.ZERO);
+    RestOperations restOperations = new RestTemplate(requestFactory);
+    String url = "http://service:" + this.port + "/ping";
+
+    // the first resolution has nothing to fall back to
+    assertThrows(ResourceAccessException.class, () -> restOperations.getForObject(url, String.class));
+    assertEquals("pong", restOperations.getForObject(url, String.class));
+    assertEquals("pong", restOperations.getForObject(url, String.class));
+    assertEquals("pong", restOperations.getForObject(url, String.class));
+    assertTrue(resolutions.get() > 2);
+  }
+
+  @Test
+  void rejectsRequestFactoriesWithoutHost() {
+    assertThrows(IllegalArgumentException.class,
+            () -> new LatencyAwareClientHttpRequestFactory(new JdkClientHttpRequestFactory()));
+    assertThrows(IllegalArgumentException.class,
+            () -> new LatencyAwareClientHttpRequestFactory(new JfrHttp2ClientHttpRequestFactory()));
+    // restricted headers are allowed in the build
+    new LatencyAwareClientHttpRequestFactory(new SimpleClientHttpRequestFactory());
+  }
+
+  @Test
+  void expectedLatency() {
+    long probeInterval = 60_000_000_000L;
+    AddressStatistics fast = new AddressStatistics(HEALTHY);
+    AddressStatistics slow = new AddressStatistics(FAILING);
+    long now = System.nanoTime();
+    // only one probe at a time
+    assertTrue(fast.tryProbe(now, probeInterval));
+    assertFalse(fast.tryProbe(now, probeInterval));
+    fast.begin();
+    assertEquals(2.0d, fast.getExpectedLatency(1.0d));
+    fast.end(1_000_000L, false);
+    slow.begin();
+    slow.end(10_000_000L, false);
+    now = System.nanoTime();
+    assertFalse(fast.tryProbe(now, probeInterval));
+    assertTrue(fast.getExpectedLatency(1_000_000.0d) < slow.getExpectedLatency(1_000_000.0d));
+
+    // concurrent requests make an address less attractive
+    fast.begin();
+    assertEquals(2_000_000.0d, fast.getExpectedLatency(1_000_000.0d));
+
+    // addresses not used for a long time are probed again
+    assertTrue(slow.tryProbe(now + probeInterval + 1L, probeInterval));
+    assertFalse(slow.tryProbe(now + probeInterval + 1L, probeInterval));
+    // a probe that is never executed does not block probing forever
+    assertTrue(slow.tryProbe(now + 3L * probeInterval, probeInterval));
+
+    slow.eject(System.nanoTime() + 1_000_000_000L);
+    assertTrue(slow.isEjected(System.nanoTime()));
+    slow.eject(System.nanoTime() - 1L);
+    assertFalse(slow.isEjected(System.nanoTime()));
+    assertEquals(0L, slow.getRequests());
+    // not used yet, as fast as the fastest address
+    assertEquals(1_000_000.0d, slow.getExpectedLatency(1_000_000.0d));
+  }
+
+  /**
+   * Avoids class loading and JIT compilation making the first request to an
+   * address look slow.
+   */
+  private void warmUp() {
+    RestOperations restOperations = new RestTemplate(new SimpleClientHttpRequestFactory());
+    for (int i = 0; i < 5; i++) {
+      restOperations.getForObject("http://localhost:" + this.port + "/ping", String.class);
+    }
+    this.requests.clear();
+    this.hostHeaders.clear();
+  }
+
+  private static InetAddress address(int a, int b, int c, int d) {
+    try {
+      return InetAddress.getByAddress(new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+}
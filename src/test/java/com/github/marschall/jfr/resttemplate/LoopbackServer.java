@@ -0,0 +1,130 @@
+package com.github.marschall.jfr.resttemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * A JDK {@link HttpServer} on an ephemeral port of the loopback address and
+ * helpers to read the events of a {@link Recording}.
+ */
+final class LoopbackServer implements AutoCloseable {
+
+  private final HttpServer server;
+
+  LoopbackServer() throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+  }
+
+  /**
+   * Handles a path with a custom handler.
+   *
+   * @param path the path to handle
+   * @param handler the handler
+   * @return this server
+   */
+  LoopbackServer handle(String path, HttpHandler handler) {
+    this.server.createContext(path, handler);
+    return this;
+  }
+
+  /**
+   * Responds to a path with a fixed plain text body.
+   *
+   * @param path the path to handle
+   * @param body the response body
+   * @return this server
+   */
+  LoopbackServer text(String path, String body) {
+    return this.handle(path, exchange -> respond(exchange, 200, "text/plain", body.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  /**
+   * Responds to a path with the request body as plain text. The
+   * {@code Content-Length} header received is sent back as
+   * {@code X-Content-Length} header, {@code none} if there was none.
+   *
+   * @param path the path to handle
+   * @return this server
+   */
+  LoopbackServer echo(String path) {
+    return this.handle(path, exchange -> {
+      byte[] body = readBody(exchange);
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      exchange.getResponseHeaders().add("X-Content-Length", contentLength != null ? contentLength : "none");
+      respond(exchange, 200, "text/plain", body);
+    });
+  }
+
+  LoopbackServer start() {
+    this.server.start();
+    return this;
+  }
+
+  /**
+   * Returns the base URL using the host name {@code localhost}.
+   *
+   * @return the base URL without a trailing slash
+   */
+  String getBaseUrl() {
+    return "http://localhost:" + this.server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+  }
+
+  static byte[] readBody(HttpExchange exchange) throws IOException {
+    try (InputStream requestBody = exchange.getRequestBody()) {
+      return requestBody.readAllBytes();
+    }
+  }
+
+  static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  static List<RecordedEvent> readEvents(Recording recording) throws IOException {
+    Path file = Files.createTempFile("jfr-resttemplate", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Reads the events of a single type, a recording also contains the events
+   * enabled by other recordings.
+   *
+   * @param recording the recording to read
+   * @param eventClass the type of the events to read
+   * @return the events of the type
+   * @throws IOException if the recording can not be read
+   */
+  static List<RecordedEvent> readEvents(Recording recording, Class<? extends Event> eventClass) throws IOException {
+    return readEvents(recording).stream()
+            .filter(event -> event.getEventType().getName().equals(eventClass.getName()))
+            .toList();
+  }
+
+}
@@ -0,0 +1,185 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class PooledBufferingClientHttpRequestFactoryTests {
+
+  private LoopbackServer server;
+
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.server = new LoopbackServer()
+            .echo("/echo")
+            .start();
+    this.baseUrl = this.server.getBaseUrl();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.close();
+  }
+
+  @Test
+  void poolUsage() throws IOException {
+    BufferPool pool = new BufferPool(1000, 4, 3000L);
+    RestOperations restOperations = new RestTemplate(new PooledBufferingClientHttpRequestFactory(new SimpleClientHttpRequestFactory(), pool));
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(BufferPool.BufferPoolEvent.class).with("period", "endChunk");
+      recording.start();
+      // 3 misses
+      assertEcho(restOperations, 2500);
+      // 3 hits
+      assertEcho(restOperations, 2500);
+      // 3 hits, 1 oversize allocation
+      assertEcho(restOperations, 3500);
+      // no body, no segments
+      assertNull(restOperations.getForObject(this.baseUrl + "/echo", String.class));
+      recording.stop();
+      events = readEvents(recording);
+    }
+
+    RecordedEvent event = events.stream()
+            .filter(each -> each.getEventType().getName().equals(BufferPool.BufferPoolEvent.class.getName()))
+            .filter(each -> each.getInt("segmentSize") == 1000)
+            .findFirst()
+            .orElseThrow();
+    assertEquals(6L, event.getLong("hits"));
+    assertEquals(3L, event.getLong("misses"));
+    assertEquals(1L, event.getLong("oversizeAllocations"));
+    assertEquals(4, event.getInt("pooledSegments"));
+    assertEquals(4000L, event.getLong("pooledBytes"));
+    assertEquals(1.0d, event.getDouble("usage"));
+  }
+
+  @Test
+  void streamingRequest() {
+    ClientHttpRequestFactory requestFactory = new PooledBufferingClientHttpRequestFactory(
+            new JfrHttp2ClientHttpRequestFactory(), new BufferPool(1000, 4, 3000L));
+    RestOperations restOperations = new RestTemplate(requestFactory);
+    assertEcho(restOperations, 2500);
+    assertEcho(restOperations, 3500);
+  }
+
+  @Test
+  void abandonedRequest() throws InterruptedException {
+    BufferPool pool = new BufferPool(1000, 4, 3000L);
+    RestOperations restOperations = new RestTemplate(new PooledBufferingClientHttpRequestFactory(new SimpleClientHttpRequestFactory(), pool));
+    // serializing the body fails halfway, the request is never executed
+    assertThrows(ResourceAccessException.class, () -> restOperations.execute(this.baseUrl + "/echo", HttpMethod.POST, request -> {
+      request.getBody().write(new byte[2500]);
+      throw new IOException("serialization failed");
+    }, null));
+
+    // the segments are returned once the request is no longer reachable
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (pool.getPooledSegments() < 3 && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertEquals(3, pool.getPooledSegments());
+  }
+
+  @Test
+  void contentLengthMismatch() {
+    RestOperations restOperations = new RestTemplate(new PooledBufferingClientHttpRequestFactory(new SimpleClientHttpRequestFactory()));
+    String contentLength = restOperations.execute(this.baseUrl + "/echo", HttpMethod.POST, request -> {
+      request.getHeaders().setContentLength(10L);
+      request.getBody().write(new byte[2500]);
+    }, response -> response.getHeaders().getFirst("X-Content-Length"));
+    assertEquals("2500", contentLength);
+  }
+
+  @Test
+  void releasedAfterAsynchronousWrite() throws InterruptedException {
+    BufferPool pool = new BufferPool(1000, 4, 3000L);
+    PooledOutputStream body = new PooledOutputStream(pool);
+    body.write(new byte[2500], 0, 2500);
+    PooledBufferingClientHttpRequest.PooledBody pooledBody = new PooledBufferingClientHttpRequest.PooledBody(body);
+    assertFalse(pooledBody.repeatable());
+
+    // the body is written on another thread while the response already arrived
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    Thread writer = new Thread(() -> {
+      try {
+        pooledBody.writeTo(new FilterOutputStream(written) {
+
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            writing.countDown();
+            try {
+              proceed.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+            this.out.write(b, off, len);
+          }
+
+        });
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    writer.start();
+    writing.await();
+    pooledBody.releaseIfNotWriting();
+    assertEquals(0, pool.getPooledSegments());
+
+    proceed.countDown();
+    writer.join();
+    assertEquals(2500, written.size());
+    assertEquals(3, pool.getPooledSegments());
+  }
+
+  @Test
+  void releasedBeforeWrite() {
+    BufferPool pool = new BufferPool(1000, 4, 3000L);
+    PooledOutputStream body = new PooledOutputStream(pool);
+    body.write(new byte[2500], 0, 2500);
+    PooledBufferingClientHttpRequest.PooledBody pooledBody = new PooledBufferingClientHttpRequest.PooledBody(body);
+    pooledBody.releaseIfNotWriting();
+    assertEquals(3, pool.getPooledSegments());
+    assertThrows(IllegalStateException.class, () -> pooledBody.writeTo(OutputStream.nullOutputStream()));
+  }
+
+  private void assertEcho(RestOperations restOperations, int length) {
+    String body = "a".repeat(length);
+    ResponseEntity<String> response = restOperations.postForEntity(this.baseUrl + "/echo", body, String.class);
+    assertEquals(body, response.getBody());
+    assertEquals(Integer.toString(length), response.getHeaders().getFirst("X-Content-Length"));
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class RestWarmupTests {
+
+  private LoopbackServer server;
+
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    this.server = new LoopbackServer()
+            .text("/ping", "pong")
+            .start();
+    this.baseUrl = this.server.getBaseUrl();
+  }
+
+  @AfterEach
+  void stopServer() {
+    this.server.close();
+  }
+
+  @Test
+  void warmupEvents() throws IOException {
+    RestOperations restOperations = new JfrRestOperations(new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory())));
+    RestWarmup warmup = new RestWarmup(restOperations);
+    warmup.addEndpoint(URI.create(this.baseUrl + "/ping"), String.class);
+    warmup.addEndpoint(URI.create(this.baseUrl + "/missing"), String.class);
+    warmup.setConnections(2);
+    warmup.setIterations(3);
+
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRestOperations.RestEvent.class);
+      recording.enable(RestWarmup.WarmupEvent.class);
+      recording.start();
+      warmup.run();
+      restOperations.getForObject(this.baseUrl + "/ping", String.class);
+      recording.stop();
+      events = readEvents(recording);
+    }
+    Map<Boolean, Long> counts = events.stream()
+            .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+            .collect(Collectors.partitioningBy(event -> event.getBoolean("warmup"), Collectors.counting()));
+    assertEquals(10L, counts.get(true));
+    assertEquals(1L, counts.get(false));
+
+    RecordedEvent warmupEvent = events.stream()
+            .filter(event -> event.getEventType().getName().equals(RestWarmup.WarmupEvent.class.getName()))
+            .findFirst()
+            .orElseThrow();
+    assertEquals(2, warmupEvent.getInt("endpoints"));
+    assertEquals(10, warmupEvent.getInt("requests"));
+    assertEquals(5, warmupEvent.getInt("failures"));
+
+    Map<String, RecordedEvent> warmupOperations = events.stream()
+            .filter(event -> event.getEventType().getName().equals(JfrRestOperations.RestEvent.class.getName()))
+            .filter(event -> event.getBoolean("warmup"))
+            .collect(Collectors.toMap(event -> event.getString("uri"), Function.identity(), (a, b) -> a));
+    assertEquals(200, warmupOperations.get(this.baseUrl + "/ping").getInt("statusCode"));
+    assertEquals(404, warmupOperations.get(this.baseUrl + "/missing").getInt("statusCode"));
+  }
+
+}
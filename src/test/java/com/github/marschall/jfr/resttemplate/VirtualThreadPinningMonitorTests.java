@@ -0,0 +1,73 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+class VirtualThreadPinningMonitorTests {
+
+  private static final String FACTORY = "org.springframework.http.client.SimpleClientHttpRequestFactory";
+
+  @Test
+  void correlation() throws IOException {
+    Instant start = Instant.parse("2024-01-01T00:00:00Z");
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(VirtualThreadPinningMonitor.PinnedOperationEvent.class);
+      recording.start();
+
+      // closing the monitor waits for the events to be committed
+      try (VirtualThreadPinningMonitor monitor = new VirtualThreadPinningMonitor()) {
+        // pinning reported before the operation
+        monitor.onPinned(1L, start.plusMillis(10L), Duration.ofMillis(30L));
+        monitor.onOperation(1L, start, start.plusMillis(100L), "GET", "/users/{id}", FACTORY);
+        // pinning reported after the operation
+        monitor.onOperation(2L, start, start.plusMillis(100L), "GET", "/users/{id}", FACTORY);
+        monitor.onPinned(2L, start.plusMillis(50L), Duration.ofMillis(25L));
+        // pinning on a different thread
+        monitor.onPinned(3L, start.plusMillis(50L), Duration.ofMillis(25L));
+        // pinning outside of the operation
+        monitor.onOperation(4L, start, start.plusMillis(100L), "POST", "/users", FACTORY);
+        monitor.onPinned(4L, start.plusMillis(150L), Duration.ofMillis(25L));
+
+        assertEquals(Map.of("/users/{id}", Map.of(FACTORY, 2L)), monitor.getPinnedOperations());
+      }
+
+      recording.stop();
+      events = readEvents(recording);
+    }
+    assertEquals(2, events.size());
+    for (RecordedEvent event : events) {
+      assertEquals("/users/{id}", event.getString("uri"));
+      assertEquals(FACTORY, event.getString("requestFactory"));
+      assertTrue(event.getLong("pinnedTime") > 0L);
+    }
+  }
+
+  @Test
+  void expiredOperations() {
+    Instant start = Instant.parse("2024-01-01T00:00:00Z");
+    try (VirtualThreadPinningMonitor monitor = new VirtualThreadPinningMonitor()) {
+      monitor.onOperation(1L, start, start.plusMillis(100L), "GET", "/users/{id}", FACTORY);
+      // within the sweep interval, nothing is dropped
+      monitor.onOperation(2L, start.plusMillis(500L), start.plusMillis(600L), "GET", "/users/{id}", FACTORY);
+      // moves past the retention of the first operation
+      monitor.onOperation(3L, start.plusSeconds(20L), start.plusSeconds(21L), "GET", "/users/{id}", FACTORY);
+      // late pinned event of the dropped operation
+      monitor.onPinned(1L, start.plusMillis(50L), Duration.ofMillis(25L));
+      assertEquals(Map.of(), monitor.getPinnedOperations());
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.github.marschall.jfr.resttemplate;
+
+import static com.github.marschall.jfr.resttemplate.LoopbackServer.readEvents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Pins a real virtual thread, requires Java 21.
+ */
+class VirtualThreadPinningTests {
+
+  private final Object lock = new Object();
+
+  @Test
+  void pinnedOperation() throws IOException, InterruptedException {
+    try (LoopbackServer server = new LoopbackServer().text("/pinned", "pinned").start()) {
+      RestTemplate restTemplate = new RestTemplate(new JfrClientHttpRequestFactory(new SimpleClientHttpRequestFactory()));
+      restTemplate.getInterceptors().add((request, body, execution) -> {
+        // blocking while holding a monitor pins the virtual thread to its carrier
+        synchronized (this.lock) {
+          try {
+            Thread.sleep(50L);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+        return execution.execute(request, body);
+      });
+      RestOperations restOperations = new JfrRestOperations(restTemplate);
+      String url = server.getBaseUrl() + "/pinned";
+
+      List<RecordedEvent> events;
+      try (Recording recording = new Recording()) {
+        recording.enable(VirtualThreadPinningMonitor.PinnedOperationEvent.class);
+        recording.start();
+        // closing the monitor waits for the events to be committed
+        try (VirtualThreadPinningMonitor monitor = new VirtualThreadPinningMonitor()) {
+          monitor.start();
+
+          Thread thread = Thread.ofVirtual().start(() -> restOperations.getForObject(url, String.class));
+          thread.join();
+
+          // events are delivered asynchronously
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+          while (monitor.getPinnedOperations().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(100L);
+          }
+        }
+        recording.stop();
+        // the events enabled by the monitor end up in the recording as well
+        events = readEvents(recording, VirtualThreadPinningMonitor.PinnedOperationEvent.class);
+      }
+      // the request factory may pin as well, eg. during the first connect
+      assertFalse(events.isEmpty());
+      for (RecordedEvent event : events) {
+        assertEquals("GET", event.getString("method"));
+        assertEquals(url, event.getString("uri"));
+        assertEquals(SimpleClientHttpRequestFactory.class.getName(), event.getString("requestFactory"));
+        assertTrue(event.getLong("pinnedTime") >= TimeUnit.MILLISECONDS.toNanos(20L));
+      }
+    }
+  }
+
+}